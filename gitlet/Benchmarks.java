@@ -0,0 +1,185 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.function.Supplier;
+import static gitlet.Utils.*;
+
+/** Times gitlet's core operations on repos of several sizes. Run in an
+ * empty directory, which is used as the repos' working directory:
+ *     java gitlet.Benchmarks [number of files]...
+ * (or 'make bench'). For each size, a repo is made with that many
+ * files, two branches of HISTORY commits each, and the operations below
+ * are timed on it:
+ *   sha1         - hashing the head commit's serialized form.
+ *   serialize    - serializing the head commit.
+ *   readObject   - reading the head commit's file back.
+ *   blob         - making the blob of one working file.
+ *   commit       - making a commit changing one file of all of them.
+ *   getSplit     - finding the split point of the two branches.
+ *   status       - the status command's scan of the working directory.
+ *   checkout     - checking out the other branch's head commit (and
+ *                  back, on the next call).
+ * Each operation is run for WARMUP_NS first, so the JIT has compiled
+ * it, then timed over calls for MEASURE_NS, and the mean time of a call
+ * printed. (JMH isn't among this project's libraries; this follows the
+ * way it measures, on a smaller scale.)
+ * @author Cole Tahawi
+ */
+public class Benchmarks {
+    /** Sizes benchmarked if none are given. */
+    private static final int[] DEFAULT_SIZES = {100, 1000};
+    /** Commits on each of the two branches, after the first. */
+    private static final int HISTORY = 50;
+    /** Time each operation is warmed up for, and timed for, in ns. */
+    private static final long WARMUP_NS = 1_000_000_000L;
+    private static final long MEASURE_NS = 2_000_000_000L;
+    /** Where the repos' commands print to. */
+    private static final PrintStream NOWHERE =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    /** Folds in every result, so no call can be optimized away. */
+    private static int sink;
+
+    public static void main(String... args) {
+        if (Repository.GITLET_DIR.exists()) {
+            System.out.println("Run the benchmarks in an empty directory.");
+            return;
+        }
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i += 1) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-12s %8s %14s%n", "benchmark", "files", "us/op");
+        for (int size : sizes) {
+            try {
+                run(size);
+            } finally {
+                clean();
+            }
+        }
+    }
+
+    /** Times every operation on a new repo with size files. */
+    private static void run(int size) {
+        Repository repo = makeRepo(size);
+        String masterSha = repo.getHeadSha();
+        Commit master = Commit.readCommit(masterSha);
+        Commit other = Commit.readCommit(RefStore.local().get("other"));
+        File commitFile = join(Repository.COMMITS_DIR, masterSha);
+        String key = fileKey(0);
+
+        bench("sha1", size, () -> sha1(serialize(master)));
+        bench("serialize", size, () -> serialize(master));
+        bench("readObject", size,
+            () -> readObject(commitFile, Commit.class));
+        bench("blob", size, () -> new Blob(key, Repository.STAGED_DIR));
+        Blob staged = new Blob(key, Repository.STAGED_DIR);
+        staged.saveBlob(Repository.STAGED_DIR);
+        int[] made = {0};
+        bench("commit", size, () -> {
+            HashMap<String, String> blobs = new HashMap<>();
+            blobs.put(key, staged.getSha());
+            made[0] += 1;
+            return new Commit("bench " + made[0], masterSha, blobs,
+                    new ArrayDeque<>());
+        });
+        bench("getSplit", size, () -> Branch.getSplit(master, other));
+        bench("status", size, () -> {
+            repo.printStatus();
+            return repo;
+        });
+        Commit[] next = {other, master};
+        bench("checkout", size, () -> {
+            Commit c = next[0];
+            next[0] = next[1];
+            next[1] = c;
+            repo.checkoutCommit(c);
+            return c;
+        });
+    }
+
+    /** Times op (see Benchmarks), printing the result as name's. */
+    private static void bench(String name, int size, Supplier<Object> op) {
+        long deadline = System.nanoTime() + WARMUP_NS;
+        while (System.nanoTime() < deadline) {
+            sink += op.get().hashCode();
+        }
+        long calls = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink += op.get().hashCode();
+            calls += 1;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NS);
+        System.out.printf("%-12s %8d %14.1f%n", name, size,
+                elapsed / 1000.0 / calls);
+    }
+
+    /** Makes a repo in the working directory with size files, committed
+     * on master. Then makes branch other, and HISTORY commits on each
+     * branch, each changing a file. Returns it, on master. */
+    private static Repository makeRepo(int size) {
+        Repository repo = Repository.initRepository();
+        repo.setOutput(NOWHERE);
+        for (int i = 0; i < size; i += 1) {
+            writeFile(i, "version 0\n");
+            repo.stageFile(fileKey(i));
+        }
+        repo.makeCommit("add " + size + " files");
+        repo.makeBranch("other");
+        for (String branch : new String[] {"other", "master"}) {
+            if (!branch.equals(repo.getHeadName())) {
+                repo.checkoutBranch(branch);
+            }
+            for (int i = 1; i <= HISTORY; i += 1) {
+                int f = Math.floorMod(branch.hashCode() + i, size);
+                writeFile(f, branch + " version " + i + "\n");
+                repo.stageFile(fileKey(f));
+                repo.makeCommit(branch + " " + i);
+            }
+        }
+        return repo;
+    }
+
+    /** Returns the ith working file. */
+    private static File workFile(int i) {
+        return join(Repository.PROJ_DIR, "files", (i % 100) + "", i + ".txt");
+    }
+
+    /** Returns the key of the ith working file. */
+    private static String fileKey(int i) {
+        return Repository.keyOf(workFile(i));
+    }
+
+    /** Writes contents to the ith working file. */
+    private static void writeFile(int i, String contents) {
+        File f = workFile(i);
+        f.getParentFile().mkdirs();
+        writeContents(f, contents);
+    }
+
+    /** Deletes the repo and the working files. */
+    private static void clean() {
+        delete(Repository.GITLET_DIR);
+        delete(join(Repository.PROJ_DIR, "files"));
+    }
+
+    /** Deletes f, and everything in it if it's a directory. */
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -12,6 +12,7 @@ import static gitlet.Utils.*;
  * */
 
 public class Blob implements Serializable {
+    private static final long serialVersionUID = 7959480883154265243L;
     private String path;
     private String shaVal;
     private String contents;
@@ -19,7 +20,7 @@ public class Blob implements Serializable {
     /** Gets contents of file, computes sha, and serializes blob. */
     public Blob(String absPath) {
         // read given file
-        contents = readContentsAsString(new File(absPath));
+        contents = readContentsAsString(Repository.fileOf(absPath));
         // record absolute path of working file
         path = absPath;
         // compute this' sha
@@ -33,7 +34,7 @@ public class Blob implements Serializable {
      * DOES NOT automatically serialize blob. */
     public Blob(String absPath, File saveDir) {
         // read given file
-        contents = readContentsAsString(new File(absPath));
+        contents = readContentsAsString(Repository.fileOf(absPath));
         // record absolute path of working file
         path = absPath;
         // compute this' sha
@@ -64,7 +65,7 @@ public class Blob implements Serializable {
      * Will create file if needed. */
     public void writeToProject() {
         // get file object
-        File f = new File(path);
+        File f = Repository.fileOf(path);
         // make sure dirs containing f exist
         writeDirsTo(f);
         try {
@@ -73,7 +74,7 @@ public class Blob implements Serializable {
                 f.createNewFile();
             }
         } catch (IOException e) {
-            System.out.println("failed to write blob!");
+            throw error("failed to write blob!");
         }
         // write contents of blob to file
         writeContents(f, contents);
@@ -117,7 +118,7 @@ public class Blob implements Serializable {
         // make file object
         File f = join(saveDir, shaVal);
         // write contents to file w/ this name
-        writeObject(f, this);
+        GitletEvents.ObjectWrite.write(f, this, shaVal, "blob");
     }
 
     /** serializes a blob to /blobs/ */
@@ -131,7 +132,7 @@ public class Blob implements Serializable {
         File f = join(saveDir, sha);
         // try to deserialize blob
         Blob b = null;
-        b = readObject(f, Blob.class);
+        b = GitletEvents.ObjectRead.read(f, Blob.class, sha, "blob");
         return b;
     }
 
@@ -141,23 +142,31 @@ public class Blob implements Serializable {
         if (sha == null) {
             return null;
         }
+        // a blobless clone fetches blobs the first time they're read
+        PartialClone.fetch(sha);
         return readBlob(sha, Repository.BLOBS_DIR);
     }
 
+    /** Returns whether bytes, read from a blob file named sha,
+     * really are the blob with that sha. */
+    static boolean verify(byte[] bytes, String sha) {
+        return ObjectCopier.hasSavedSha(bytes, sha);
+    }
+
     /** Returns whether instances have the same sha val. */
     public boolean equals(Blob b) {
         return b.shaVal.equals(shaVal);
     }
 
-    /** Given 2 blobs, merges their contents and
-     * returns a new blob (not serialized) with those contents. */
-    public static Blob mergeBlobs(Blob currB, Blob givenB) {
+    /** Given the split point's, the current and the given blob
+     * (any of which may be null if the file DNE there), merges their
+     * contents line by line. Only regions changed differently in curr
+     * and given are marked as conflicts. */
+    public static TextMerge mergeBlobs(Blob splitB, Blob currB, Blob givenB) {
         // get contents, if file exists.
+        String split = (splitB == null) ? "" : splitB.getContents();
         String curr = (currB == null) ? "" : currB.getContents();
         String given = (givenB == null) ? "" : givenB.getContents();
-        String newContents = "<<<<<<< HEAD\n" + curr
-                + "=======\n" + given + ">>>>>>>\n";
-        // use special blob constructor
-        return new Blob(currB.getPath(), newContents);
+        return new TextMerge(split, curr, given);
     }
 }
@@ -8,14 +8,34 @@ import static gitlet.Utils.*;
  * sha value, and the most recent commit.
  * @author Cole Tahawi */
 public class Branch implements Serializable {
+    private static final long serialVersionUID = 3241800825799953691L;
     private String name; // my name
     private String head; // sha val of current commit
 
     /** Default constructor. Serializes this new branch, too. */
     public Branch(String n, String firstCommitSha) {
+        this(n, firstCommitSha, Repository.BRANCHES_DIR);
+    }
+
+    /** Creates a branch and serializes it into the given /branches/
+     * directory (e.g. a remote repo's). */
+    Branch(String n, String firstCommitSha, File branchesDir) {
         name = n;
         head = firstCommitSha;
-        saveBranch();
+        saveBranch(branchesDir);
+    }
+
+    /** For existing(): a branch with no name or head yet. */
+    private Branch() {
+    }
+
+    /** Returns branch n, which is already saved (e.g. packed, see
+     * RefStore) with head commit sha. Doesn't save it again. */
+    static Branch existing(String n, String sha) {
+        Branch b = new Branch();
+        b.name = n;
+        b.head = sha;
+        return b;
     }
 
     /** Returns the most recent commit's sha value */
@@ -36,30 +56,38 @@ public class Branch implements Serializable {
      * If a branch of the same name is already serialized,
      * it is overwritten. */
     public void saveBranch() {
+        saveBranch(Repository.BRANCHES_DIR);
+    }
+
+    /** Serializes branch into the given /branches/ directory.
+     * Names like "origin/master" are saved in a subdirectory. */
+    void saveBranch(File branchesDir) {
         // make file object
-        File f = join(Repository.BRANCHES_DIR, name);
+        File f = join(branchesDir, name);
+        f.getParentFile().mkdirs();
         // write contents to file w/ this name
         writeObject(f, this);
     }
 
     /** Deserializes + returns a branch instance, given its name.
-     * Returns null if this fails/serialized branch D.N.E.
+     * Throws a GitletException if the serialized branch D.N.E.
      */
     public static Branch readBranch(String name) {
-        // make file obj
-        File f = join(Repository.BRANCHES_DIR, name);
+        Branch b = readBranch(Repository.GITLET_DIR, name);
         // make sure branch exists
-        if (!f.exists()) {
-            System.out.println("Cannot deserialize this branch, "
-                    + "it does not exist!");
-            return null;
+        if (b == null) {
+            throw error("A branch with that name does not exist.");
         }
-        Branch b = null;
-        // try to read in file
-        b = readObject(f, Branch.class);
         return b;
     }
 
+    /** Returns the branch with the given name in the repo whose /.gitlet/
+     * directory is gitletDir, or null if it D.N.E. */
+    static Branch readBranch(File gitletDir, String name) {
+        String sha = new RefStore(gitletDir).get(name);
+        return (sha == null) ? null : existing(name, sha);
+    }
+
     /** Given a working file's absolute path,
      * deserializes & returns the blob instance of it,
      * from the most recent commit. */
@@ -80,14 +108,34 @@ public class Branch implements Serializable {
         return Blob.readBlob(blobSha);
     }
 
-    /** Find nearest split of the given commits using a BFS. */
+    /** Find nearest split of the given commits using a BFS.
+     * Returns null if (a shallow repo's) history ends before one. */
     public static Commit getSplit(Commit c0, Commit c1) {
+        GitletEvents.GraphWalk event = new GitletEvents.GraphWalk();
+        event.begin();
+        Commit split = findSplit(c0, c1);
+        if (event.shouldCommit()) {
+            event.kind = "split";
+            event.from = c0.getMySha();
+            event.to = c1.getMySha();
+            event.result = (split == null) ? null : split.getMySha();
+            event.commit();
+        }
+        return split;
+    }
+
+    /** Does getSplit's search (recursively, so one walk is one event). */
+    private static Commit findSplit(Commit c0, Commit c1) {
         // if at initial commit
         if (c0.getParent() == null) {
             return c0;
         }
         // get c0's parent(s)
         Commit parent = Commit.readCommit(c0.getParent());
+        // if history was cut off here
+        if (parent == null) {
+            return null;
+        }
         String parent2Sha = c0.getSecondParent();
         Commit parent2 = (parent2Sha == null) ? null : Commit.readCommit(parent2Sha);
         // if a parent is an ancestor of c1
@@ -99,11 +147,14 @@ public class Branch implements Serializable {
         // otherwise, recurse onto c0's parents
         if (parent2 == null) {
             // no choice to be made
-            return getSplit(parent, c1);
+            return findSplit(parent, c1);
         }
         // return whichever split point is more proximate
-        Commit firstSplit = getSplit(parent, c1);
-        Commit secondSplit = getSplit(parent2, c1);
+        Commit firstSplit = findSplit(parent, c1);
+        Commit secondSplit = findSplit(parent2, c1);
+        if (firstSplit == null || secondSplit == null) {
+            return (firstSplit == null) ? secondSplit : firstSplit;
+        }
         return getCloserCommit(c1, firstSplit, secondSplit);
     }
 
@@ -115,12 +166,4 @@ public class Branch implements Serializable {
             return c1;
         }
     }
-
-    /** Save this branch, and all blobs and commits
-     * not in a given remote, to that remote. (given the path for /.gitlet/ */
-    public void saveRemote(String remotePath) {
-        File remote = new File(remotePath);
-        File branch = join(remote, "branches/" + name);
-
-    }
 }
@@ -0,0 +1,296 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+import static gitlet.Utils.*;
+
+/** A single file holding a branch's commits and blobs, for moving history
+ * between repos that can't see each other's directories.
+ *
+ * A bundle is MAGIC, then one deflated stream of:
+ *   the branch's name and head commit's sha,
+ *   the number of prerequisite commits and their shas (commits the
+ *     receiver must already have, when made with --since),
+ *   objects, each a type byte (BLOB or COMMIT), the object's sha, its
+ *     length and its file's bytes. A commit's new blobs and parents
+ *     always come before it.
+ *   an END byte,
+ *   the SHA-1 of every byte above (after MAGIC).
+ * Objects are streamed in and out one at a time, so neither side ever
+ * holds the whole bundle in memory.
+ * @author Cole Tahawi
+ */
+class Bundle {
+    /** First bytes of every bundle (not compressed). */
+    private static final byte[] MAGIC =
+        "# gitlet bundle v1\n".getBytes(StandardCharsets.UTF_8);
+    /** Object type bytes. */
+    private static final int END = 0;
+    private static final int BLOB = 1;
+    private static final int COMMIT = 2;
+    /** Size of the buffer objects are copied through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Directory inside /.gitlet/ that objects are unpacked into
+     * until the whole bundle has been checked. */
+    private static final String TEMP_DIR = "bundle-tmp";
+
+    /** Writes the commit with sha tip (the head of branch brName) and its
+     * history into file bundle. If since isn't null, commits in its
+     * history (and blobs they already use) are left out, and the
+     * receiver must have them. Returns the number of commits written. */
+    static int create(File bundle, String brName, String tip, String since) {
+        CommitIndex index = CommitIndex.local();
+        BitSet has = (since == null) ? new BitSet() : index.history(since);
+        List<String> commits = Remote.missingCommits(index,
+            Repository.COMMITS_DIR, tip, sha -> {
+                int pos = index.positionOf(sha);
+                return pos >= 0 && has.get(pos);
+            });
+        // prerequisites: left-out parents of written commits
+        Set<String> written = new HashSet<>(commits);
+        Set<String> prereqs = new HashSet<>();
+        for (String sha : commits) {
+            for (String p : Remote.parentsOf(index, Repository.COMMITS_DIR,
+                    sha)) {
+                if (p != null && !written.contains(p)) {
+                    prereqs.add(p);
+                }
+            }
+        }
+        // the receiver has every blob its prerequisites use
+        Set<String> sentBlobs = new HashSet<>();
+        for (String sha : prereqs) {
+            sentBlobs.addAll(Commit.readCommit(sha).getBlobMap().values());
+        }
+        try (OutputStream file = new BufferedOutputStream(
+                new FileOutputStream(bundle), BUFFER_SIZE)) {
+            file.write(MAGIC);
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            DigestOutputStream digest = new DigestOutputStream(
+                new DeflaterOutputStream(file), md);
+            DataOutputStream out = new DataOutputStream(digest);
+            out.writeUTF(brName);
+            out.writeUTF(tip);
+            out.writeInt(prereqs.size());
+            for (String sha : prereqs) {
+                out.writeUTF(sha);
+            }
+            byte[] buf = new byte[BUFFER_SIZE];
+            for (String sha : commits) {
+                Commit c = Commit.readCommit(sha);
+                for (String blobSha : c.getBlobMap().values()) {
+                    if (sentBlobs.add(blobSha)) {
+                        PartialClone.fetch(blobSha);
+                        writeEntry(out, BLOB, blobSha,
+                                join(Repository.BLOBS_DIR, blobSha), buf);
+                    }
+                }
+                writeEntry(out, COMMIT, sha,
+                        join(Repository.COMMITS_DIR, sha), buf);
+            }
+            out.writeByte(END);
+            // the checksum itself isn't checksummed
+            digest.on(false);
+            out.write(md.digest());
+            out.close();
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return commits.size();
+    }
+
+    /** Writes one object, whose bytes are in file f, to out. */
+    private static void writeEntry(DataOutputStream out, int type, String sha,
+                                   File f, byte[] buf) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(sha);
+        out.writeInt((int) f.length());
+        try (InputStream in = new FileInputStream(f)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        }
+    }
+
+    /** Unpacks file bundle into the repo in the given /.gitlet/ directory.
+     * Objects are kept aside until the bundle's checksum, every object's
+     * sha and the prerequisites have been checked, then moved into
+     * place, blobs before commits. Names that aren't shas (or branch
+     * names) are rejected before anything is written, so a bundle can't
+     * put files outside the repo, and so are commits tracking files
+     * outside its key root (see Remote.checkKeys). Returns the bundled
+     * branch's name and head sha. */
+    static String[] unbundle(File bundle, File gitletDir) {
+        File temp = join(gitletDir, TEMP_DIR);
+        File commitsDir = join(gitletDir, "commits");
+        File blobsDir = join(gitletDir, "blobs");
+        clearDir(temp);
+        temp.mkdirs();
+        String brName;
+        String tip;
+        List<String> prereqs = new ArrayList<>();
+        List<String> commits = new ArrayList<>();
+        List<String> blobs = new ArrayList<>();
+        try (InputStream file = new BufferedInputStream(
+                new FileInputStream(bundle), BUFFER_SIZE)) {
+            if (!Arrays.equals(file.readNBytes(MAGIC.length), MAGIC)) {
+                throw fail("Not a gitlet bundle.", temp);
+            }
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            DigestInputStream digest = new DigestInputStream(
+                new InflaterInputStream(file), md);
+            DataInputStream in = new DataInputStream(digest);
+            brName = in.readUTF();
+            tip = in.readUTF();
+            if (!RefStore.isValidName(brName) || !isSha(tip)) {
+                throw fail("Bundle is corrupt.", temp);
+            }
+            int numPrereqs = in.readInt();
+            for (int i = 0; i < numPrereqs; i += 1) {
+                String sha = in.readUTF();
+                if (!isSha(sha)) {
+                    throw fail("Bundle is corrupt.", temp);
+                }
+                prereqs.add(sha);
+            }
+            byte[] buf = new byte[BUFFER_SIZE];
+            for (int type = in.readByte(); type != END; type = in.readByte()) {
+                String sha = in.readUTF();
+                if ((type != BLOB && type != COMMIT) || !isSha(sha)) {
+                    throw fail("Bundle is corrupt.", temp);
+                }
+                (type == BLOB ? blobs : commits).add(sha);
+                readEntry(in, in.readInt(), join(temp, sha), buf);
+            }
+            byte[] expected = md.digest();
+            byte[] actual = new byte[expected.length];
+            in.readFully(actual);
+            if (!Arrays.equals(expected, actual)) {
+                throw fail("Bundle is corrupt.", temp);
+            }
+        } catch (EOFException | ZipException excp) {
+            throw fail("Bundle is corrupt.", temp);
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // every object must really be the one its name says
+        for (String sha : blobs) {
+            if (!Blob.verify(readContents(join(temp, sha)), sha)) {
+                throw fail("Bundle is corrupt.", temp);
+            }
+        }
+        List<Commit> read = new ArrayList<>();
+        for (String sha : commits) {
+            if (!Commit.verify(readContents(join(temp, sha)), sha)) {
+                throw fail("Bundle is corrupt.", temp);
+            }
+            read.add(readObject(join(temp, sha), Commit.class));
+        }
+        try {
+            Remote.checkKeys(read, Remote.keyRootOf(gitletDir));
+        } catch (GitletException excp) {
+            throw fail(excp.getMessage(), temp);
+        }
+        if (!commits.contains(tip) && !join(commitsDir, tip).exists()) {
+            throw fail("Bundle is corrupt.", temp);
+        }
+        for (String sha : prereqs) {
+            if (!join(commitsDir, sha).exists()) {
+                throw fail("Repository lacks prerequisite commit "
+                        + sha + ".", temp);
+            }
+        }
+        // get index first (an older repo's is built w/o these commits)
+        CommitIndex index = CommitIndex.of(gitletDir);
+        for (String sha : blobs) {
+            install(join(temp, sha), join(blobsDir, sha));
+        }
+        for (Commit c : read) {
+            File dst = join(commitsDir, c.getMySha());
+            if (!dst.exists()) {
+                install(join(temp, c.getMySha()), dst);
+                index.append(c);
+            }
+        }
+        clearDir(temp);
+        temp.delete();
+        return new String[] {brName, tip};
+    }
+
+    /** Returns whether s is a (complete, lowercase hex) sha value. */
+    private static boolean isSha(String s) {
+        return s.length() == UID_LENGTH && s.matches("[0-9a-f]*");
+    }
+
+    /** Copies the next len bytes of in into file f. */
+    private static void readEntry(DataInputStream in, int len, File f,
+                                  byte[] buf) throws IOException {
+        try (OutputStream out = new FileOutputStream(f)) {
+            while (len > 0) {
+                int n = in.read(buf, 0, Math.min(len, buf.length));
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                out.write(buf, 0, n);
+                len -= n;
+            }
+        }
+    }
+
+    /** Moves unpacked file src to dst, unless dst already exists. */
+    private static void install(File src, File dst) {
+        if (dst.exists()) {
+            return;
+        }
+        try {
+            Files.move(src.toPath(), dst.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Deletes every file in directory dir, if it exists. */
+    private static void clearDir(File dir) {
+        List<String> names = plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                join(dir, name).delete();
+            }
+        }
+    }
+
+    /** Throws away unpacked objects in temp, and returns the error
+     * to throw. */
+    private static GitletException fail(String message, File temp) {
+        clearDir(temp);
+        temp.delete();
+        return new GitletException(message);
+    }
+}
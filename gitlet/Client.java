@@ -0,0 +1,50 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/** A thin client of a gitlet server (see Server).
+ * Sends the command in its arguments to the server of the repo in the
+ * working directory, and prints what it answers. If no server is
+ * running, runs the command itself, so it can stand in for Main.
+ * @author Cole Tahawi
+ */
+public class Client {
+
+    public static void main(String[] args) {
+        SocketChannel server = Server.connect();
+        if (server == null) {
+            Main.main(args);
+            return;
+        }
+        for (String arg : args) {
+            if (arg.indexOf('\n') >= 0 || arg.indexOf('\0') >= 0) {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+        }
+        send(server, args);
+    }
+
+    /** Asks the server of the repo in the working directory to stop. */
+    static void stopServer() {
+        SocketChannel server = Server.connect();
+        if (server == null) {
+            System.out.println("No gitlet server is running.");
+            return;
+        }
+        send(server, Server.STOP);
+    }
+
+    /** Sends the command in args to server, and prints its answer. */
+    private static void send(SocketChannel server, String[] args) {
+        try (server) {
+            Server.writeRequest(server, args);
+            Channels.newInputStream(server).transferTo(System.out);
+            System.out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
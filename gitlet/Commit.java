@@ -3,8 +3,11 @@ package gitlet;
 import java.io.Serializable;
 import java.util.Date;
 import java.io.File;
+import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import static gitlet.Utils.*;
 
 /** Represents a gitlet commit object.
@@ -15,6 +18,21 @@ import static gitlet.Utils.*;
  */
 @SuppressWarnings("deprecation")
 public class Commit implements Serializable {
+    /** Fixed, since commits (and their shas) are saved in this
+     * class's serialized form. */
+    private static final long serialVersionUID = 5769606154315376302L;
+    /** Most commits kept in CACHE. */
+    static final int CACHE_SIZE = 4096;
+    /** Commits read lately, by sha, least recently used first. A saved
+     * commit never changes, so these never go stale, and a long-lived
+     * process (i.e. the server) reads each commit from disk just once. */
+    private static final Map<String, Commit> CACHE =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Commit> e) {
+                return size() > CACHE_SIZE;
+            }
+        };
     /**
      * List all instance variables of the Commit class here with a useful
      * comment above them describing what that variable represents and how that
@@ -28,6 +46,10 @@ public class Commit implements Serializable {
     private String prevCommit2; // only for merge commits
     private HashMap<String, String> blobMap; // K=working file path, V=blob's sha val
     private ArrayDeque<String> deletedFiles;
+    /** Whether only this' header has been read so far (see readHeader):
+     * blobMap and deletedFiles are read from its file on first use.
+     * Transient, so it isn't part of the serialized form (or the sha). */
+    private transient volatile boolean headerOnly;
 
     /** Constructor for INITIAL COMMIT ONLY. */
     public Commit() {
@@ -66,6 +88,32 @@ public class Commit implements Serializable {
         saveCommit();
     }
 
+    /** A commit (with a second parent, if secondParent isn't null) made
+     * at time when, whose blobs are exactly blobs, which must already be
+     * saved. For building history without a staging area (see
+     * RepoGenerator). */
+    Commit(String m, String prevC, String secondParent,
+           HashMap<String, String> blobs, Date when) {
+        message = m;
+        timestamp = formatTimestamp(when);
+        prevCommit = prevC;
+        prevCommit2 = secondParent;
+        blobMap = blobs;
+        deletedFiles = new ArrayDeque<>();
+        shaVal = computeSha();
+        saveCommit();
+    }
+
+    /** A commit of which only the header, e, has been read. */
+    private Commit(CommitIndex.Entry e) {
+        shaVal = e.getSha();
+        message = e.getMessage();
+        timestamp = e.getTimestamp();
+        prevCommit = e.getParent();
+        prevCommit2 = e.getSecondParent();
+        headerOnly = true;
+    }
+
     /** formats a timestamp for logs */
     private String formatTimestamp(Date d) {
         return String.format("%1$ta %1$tb %1$td %1$tH:%1$tM:%1$tS %1$tY %1$tz",
@@ -75,7 +123,7 @@ public class Commit implements Serializable {
     /** Returns a record of this commit's blobs,
      * As a map (K=abs path, V=sha val). */
     public HashMap<String, String> getBlobMap() {
-        return blobMap;
+        return blobs();
     }
 
     /** Return this' commmit message. */
@@ -83,10 +131,44 @@ public class Commit implements Serializable {
         return message;
     }
 
+    /** Return this' formatted timestamp. */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
     /** Given the path to this blob's file,
      * Returns this blob. */
     public String getBlobSha(String path) {
-        return blobMap.get(path);
+        return blobs().get(path);
+    }
+
+    /** Returns blobMap, reading it in first if only the header has been
+     * read. */
+    private HashMap<String, String> blobs() {
+        if (headerOnly) {
+            readBody();
+        }
+        return blobMap;
+    }
+
+    /** Reads in the rest of this header-only commit, from its file. */
+    private synchronized void readBody() {
+        if (!headerOnly) {
+            return; // another thread got here first
+        }
+        File f = join(Repository.COMMITS_DIR, shaVal);
+        Commit full = GitletEvents.ObjectRead.read(f, Commit.class, shaVal,
+                "commit");
+        blobMap = full.blobMap;
+        deletedFiles = full.deletedFiles;
+        headerOnly = false;
+    }
+
+    /** Called when this is serialized: a header-only commit is read in
+     * first, so it's written (and hashed) whole. Returns this. */
+    private Object writeReplace() {
+        blobs();
+        return this;
     }
 
     /** This' sha val */
@@ -119,7 +201,7 @@ public class Commit implements Serializable {
         // get previous commit from its sha
         Commit prevC = readCommit(prevCommit);
         // make new blob map, is a shallow copy of prev commit's map.
-        HashMap<String, String> newMap = new HashMap<>(prevC.blobMap);
+        HashMap<String, String> newMap = new HashMap<>(prevC.blobs());
         // iterate over staged blobs' absolute paths
         for (String path : stagedBlobs.keySet()) {
             // get this blob's sha
@@ -147,63 +229,102 @@ public class Commit implements Serializable {
     }
 
     /** Serialize this commit.
-     * Saves to commits dir with sha value as name. */
+     * Saves to commits dir with sha value as name,
+     * and records it in the commit index. */
     private void saveCommit() {
+        // get index first (an older repo's index is built w/o this commit)
+        CommitIndex index = CommitIndex.local();
         // make file object
         File f = join(Repository.COMMITS_DIR, shaVal);
         // write contents to file w/ this name
-        writeObject(f, this);
+        GitletEvents.ObjectWrite.write(f, this, shaVal, "commit");
+        // add this commit's header to the index
+        index.append(this);
     }
 
-    /** save commit to a /commits/ in a given /.gitlet/ */
-    private void saveRemote(String remotePath) {
-        File f = join(remotePath, "blobs/" + shaVal);
-        writeObject(f, this);
+    /** Returns whether bytes, read from a commit file named sha,
+     * really are the commit with that sha. */
+    static boolean verify(byte[] bytes, String sha) {
+        return ObjectCopier.hasSavedSha(bytes, sha);
     }
 
-    /** Deserialize and returns a commit object,
-     *  given the sha value of the commit.
-     *  If commit D.N.E., or read fails, return null. */
+    /** Returns the commit with the given sha value,
+     *  or null if it D.N.E. (or sha is null).
+     *  Only its header is read: parents, timestamp and message come from
+     *  the commit index, and the rest is only deserialized the first time
+     *  its blobs are asked for, so walking history (log, isAncestor,
+     *  distanceTo...) costs the same however many files commits track.
+     *  A commit that isn't indexed (yet) is read in whole. */
     public static Commit readCommit(String sha) {
+        if (sha == null) {
+            return null;
+        }
+        synchronized (CACHE) {
+            Commit cached = CACHE.get(sha);
+            if (cached != null) {
+                return cached;
+            }
+        }
         // make file object
         File f = join(Repository.COMMITS_DIR, sha);
         if (!f.exists()) {
             return null;
         }
-        Commit c;
-        // read in object
-        c = readObject(f, Commit.class);
+        Commit c = readHeader(CommitIndex.local(), sha);
+        if (c == null) {
+            c = GitletEvents.ObjectRead.read(f, Commit.class, sha, "commit");
+        }
+        synchronized (CACHE) {
+            CACHE.put(sha, c);
+        }
         return c;
     }
 
+    /** Returns the header-only commit with the given sha, read from
+     * index, or null if index doesn't have it. */
+    static Commit readHeader(CommitIndex index, String sha) {
+        int pos = index.positionOf(sha);
+        return (pos < 0) ? null : new Commit(index.get(pos));
+    }
+
     /** Write all blobs from this commit into working project,
      * creating files as needed. */
     public void writeToProject() {
+        // a blobless clone fetches what it's missing all at once
+        HashMap<String, String> map = blobs();
+        PartialClone.prefetch(map.values());
 //        System.err.println(blobMap);
         // iterate over blob map
-        for (String path : blobMap.keySet()) {
+        for (String path : map.keySet()) {
             // read blob
 //            System.err.println("Path: " + path + "\nHash: " + blobMap.get(path));
-            Blob b = Blob.readBlob(blobMap.get(path));
+            Blob b = Blob.readBlob(map.get(path));
             // write to project
             b.writeToProject();
         }
     }
 
-    /** Print out the log message for this commit. */
-    public void printLog() {
-        System.out.println("===");
-        System.out.println("commit " + getMySha());
+    /** Print out the log message for this commit to out. */
+    public void printLog(PrintStream out) {
+        printLog(out, shaVal, prevCommit, prevCommit2, timestamp, message);
+    }
+
+    /** Print out the log message for a commit, given its header, to out.
+     * Shared with the commit index, which stores only headers. */
+    static void printLog(PrintStream out, String sha, String parent,
+                         String parent2, String stamp, String m) {
+        out.println("===");
+        out.println("commit " + sha);
         // if this is a merge commit
-        if (prevCommit2 != null) {
+        if (parent2 != null) {
             // print prefixes of both parents
             int numChars = 7;
-            String prefix1 = prevCommit.substring(0, numChars);
-            String prefix2 = prevCommit2.substring(0, numChars);
-            System.out.println("Merge: " + prefix1 + " " + prefix2);
+            String prefix1 = parent.substring(0, numChars);
+            String prefix2 = parent2.substring(0, numChars);
+            out.println("Merge: " + prefix1 + " " + prefix2);
         }
-        System.out.println("Date: " + timestamp);
-        System.out.println(message + "\n");
+        out.println("Date: " + stamp);
+        out.println(m + "\n");
     }
 
     /** Returns if there is an untracked file (relative to head)
@@ -227,8 +348,8 @@ public class Commit implements Serializable {
             if (f.isDirectory() && !canWriteToProject(head, f)) {
                 return false;
             }
-            // get file's path
-            String path = f.getAbsolutePath();
+            // get file's key
+            String path = Repository.keyOf(f);
             // if not tracked in head commit, & would be overwritten by this
             if (head.getBlobSha(path) == null && getBlobSha(path) != null) {
                 return false;
@@ -245,27 +366,13 @@ public class Commit implements Serializable {
         }
         // else, try this commit's parent
         String parentSha = c.getParent();
-        // if at end of commit history
-        if (parentSha == null) {
-            return false;
-        }
         // otherwise, recurse onto parent
         Commit parent = Commit.readCommit(parentSha);
-        return isAncestor(parent);
-    }
-
-    /** Returns whether the file @ path was deleted
-     * AT SOME POINT in this' history, more recently than the given c. */
-    public boolean wasDeleted(String path, Commit c) {
-        Commit currC = this;
-        // iterate thru this' commit history, until reaching c.
-        while (!currC.getMySha().equals(c.getMySha())) {
-            if (currC.deletedFiles.contains(path)) {
-                return true;
-            }
-            currC = readCommit(currC.getParent());
+        // if at end of (a shallow repo's) commit history
+        if (parent == null) {
+            return false;
         }
-        return false;
+        return isAncestor(parent);
     }
 
     /** Returns how many commits back into this' history c is.
@@ -276,6 +383,10 @@ public class Commit implements Serializable {
         while (!currC.getMySha().equals(c.getMySha())) {
             distance += 1;
             currC = readCommit(currC.getParent());
+            // c isn't in (a shallow repo's) history
+            if (currC == null) {
+                return Integer.MAX_VALUE;
+            }
         }
         return distance;
     }
@@ -0,0 +1,505 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static gitlet.Utils.*;
+
+/** Compact, append-only index of every commit's metadata, kept in
+ * /.gitlet/graph/ so history commands never have to deserialize a
+ * commit (and its whole blob map) just to print its header.
+ *
+ * Two files make up the index:
+ *   commits  - fixed-width records, one per commit, in the order they
+ *              were saved. A record is the commit's sha, its parent's sha
+ *              and its second parent's sha (20 raw bytes each, all zeros
+ *              if absent), then the offset of its text (8 bytes), the
+ *              length of its timestamp (4 bytes) and message (4 bytes).
+ *   messages - each commit's timestamp followed directly by its message,
+ *              UTF-8 encoded.
+ * Since records are fixed-width, a commit's position in the index
+ * is enough to find its record in O(1).
+ *
+ * These files, and those of the ShaIndex, PathFilters and MessageIndex
+ * of the same commits, make up one generation of the index, kept in
+ * /.gitlet/graph/[n]/. The file /.gitlet/graph/current holds the
+ * current generation's number. Commits are only ever appended to a
+ * generation; rebuilding the index (e.g. after gc) writes a whole new
+ * generation, then switches current over to it atomically, so readers
+ * (which don't take the repo's lock) always see a complete index.
+ * Generation 0 is where indices written before generations were kept.
+ * @author Cole Tahawi
+ */
+class CommitIndex {
+    /** The open index of each /.gitlet/ directory, by its absolute
+     * path (see of). */
+    private static final Map<File, CommitIndex> OPEN = new HashMap<>();
+    /** Length in bytes of a raw (non-hex) sha value. */
+    static final int SHA_BYTES = UID_LENGTH / 2;
+    /** Length in bytes of one record in the commits file. */
+    static final int RECORD_SIZE = 3 * SHA_BYTES + 8 + 4 + 4;
+    /** Name of the index directory inside /.gitlet/. */
+    static final String GRAPH_DIR = "graph";
+    /** Name of the file in GRAPH_DIR holding the current generation. */
+    private static final String CURRENT_FILE = "current";
+
+    /** /.gitlet/ of the repo this indexes. */
+    private final File gitletDir;
+    /** /.gitlet/commits/ of the repo this indexes. */
+    private final File commitsDir;
+    /** The generation this reads and appends to. */
+    private int gen;
+    /** The directory holding this generation's files. */
+    private File graphDir;
+    /** Token index of the same commits' messages. */
+    private MessageIndex messages;
+    /** Sorted index of the same commits' shas. */
+    private ShaIndex ids;
+    /** Filters of the paths each of these commits changed. */
+    private PathFilters paths;
+    /** [graphDir]/commits */
+    private File recordsFile;
+    /** [graphDir]/messages */
+    private File textFile;
+    /** Read-only views of both files, mapped on first read. */
+    private ByteBuffer records;
+    private ByteBuffer text;
+
+    /** The current generation of the index of the commits in the given
+     * /.gitlet/ directory. */
+    private CommitIndex(File dir) {
+        this(dir, currentGeneration(dir));
+    }
+
+    /** Generation g of the index of the commits in the given /.gitlet/
+     * directory. */
+    private CommitIndex(File dir, int g) {
+        gitletDir = dir;
+        commitsDir = join(dir, "commits");
+        open(g);
+    }
+
+    /** Points this at the files of generation g. */
+    private void open(int g) {
+        gen = g;
+        File top = join(gitletDir, GRAPH_DIR);
+        graphDir = (g == 0) ? top : join(top, String.valueOf(g));
+        recordsFile = join(graphDir, "commits");
+        textFile = join(graphDir, "messages");
+        messages = new MessageIndex((g == 0) ? join(gitletDir, "grep")
+                : join(graphDir, "grep"));
+        ids = new ShaIndex(graphDir);
+        paths = new PathFilters(graphDir);
+        records = null;
+        text = null;
+    }
+
+    /** Returns the number of the current generation of the index in the
+     * given /.gitlet/ directory. */
+    private static int currentGeneration(File dir) {
+        File current = join(dir, GRAPH_DIR, CURRENT_FILE);
+        return current.exists()
+                ? Integer.parseInt(readContentsAsString(current).trim()) : 0;
+    }
+
+    /** Returns the index of this repo's commits,
+     * building it first if it doesn't exist yet (i.e. an older repo). */
+    static CommitIndex local() {
+        return of(Repository.GITLET_DIR);
+    }
+
+    /** Returns the index of the commits in the given /.gitlet/ directory
+     * (e.g. a remote's), building it first if it doesn't exist yet.
+     * Each directory's index is opened once per process (or per command,
+     * in a Server; see forgetAll), so its files are only mapped once. */
+    static CommitIndex of(File gitletDir) {
+        File key = gitletDir.getAbsoluteFile();
+        synchronized (OPEN) {
+            CommitIndex index = OPEN.get(key);
+            if (index == null) {
+                index = new CommitIndex(key);
+                if (!index.recordsFile.exists()) {
+                    index.rebuild(index.commitsDir);
+                }
+                OPEN.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    /** Forgets every opened index, so the next of() reads its files
+     * again (e.g. after other processes may have written to them). */
+    static void forgetAll() {
+        synchronized (OPEN) {
+            OPEN.clear();
+        }
+    }
+
+    /** Appends commit c's metadata to the end of the index
+     * (and its message, sha and changed paths to the other indices).
+     * c's parents must already be saved.
+     * Returns c's position in the index. */
+    int append(Commit c) {
+        int pos = appendHeader(c.getMySha(), c.getParent(),
+                c.getSecondParent(), c.getTimestamp(), c.getMessage());
+        if (!paths.add(pos, c, commitsDir)) {
+            // the filters no longer line up with the commits: start over
+            rebuild(commitsDir);
+            pos = positionOf(c.getMySha());
+        }
+        return pos;
+    }
+
+    /** Appends a commit's header to the end of the index (and its message
+     * and sha to the other indices, but not its changed paths).
+     * Returns its position in the index. */
+    private int appendHeader(String sha, String parent, String parent2,
+                             String timestamp, String m) {
+        graphDir.mkdirs();
+        int pos = size();
+        byte[] stamp = timestamp.getBytes(StandardCharsets.UTF_8);
+        byte[] message = m.getBytes(StandardCharsets.UTF_8);
+        // text goes first, so a record never points past the end of it
+        long offset = textFile.length();
+        appendTo(textFile, stamp, message);
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_SIZE);
+        rec.put(toBytes(sha));
+        rec.put(toBytes(parent));
+        rec.put(toBytes(parent2));
+        rec.putLong(offset);
+        rec.putInt(stamp.length);
+        rec.putInt(message.length);
+        appendTo(recordsFile, rec.array());
+        // any mapped views are now stale
+        records = null;
+        text = null;
+        messages.add(pos, m);
+        ids.update(this);
+        return pos;
+    }
+
+    /** Re-indexes every commit in commitsDir, into a new generation. */
+    void rebuild(File commitsDir) {
+        CommitIndex next = newGeneration();
+        for (String sha : plainFilenamesIn(commitsDir)) {
+            // (skipping any temporary file left by a crashed write)
+            if (sha.length() == UID_LENGTH) {
+                next.append(readObject(join(commitsDir, sha), Commit.class));
+            }
+        }
+        switchTo(next);
+    }
+
+    /** Rewrites this index, into a new generation, without the commits
+     * whose positions aren't in keep (e.g. after gc has swept them).
+     * The commits that are kept are copied from this index, filters and
+     * all, so none of them has to be read again. */
+    void compact(BitSet keep) {
+        CommitIndex next = newGeneration();
+        for (int pos = keep.nextSetBit(0); pos >= 0;
+             pos = keep.nextSetBit(pos + 1)) {
+            Entry e = get(pos);
+            int newPos = next.appendHeader(e.getSha(), e.getParent(),
+                    e.getSecondParent(), e.getTimestamp(), e.getMessage());
+            next.paths.copy(newPos, paths, pos);
+        }
+        switchTo(next);
+    }
+
+    /** Returns the (empty) generation after this one. */
+    private CommitIndex newGeneration() {
+        CommitIndex next = new CommitIndex(gitletDir, gen + 1);
+        // (a rebuild that crashed may have left part of it behind)
+        next.delete();
+        next.graphDir.mkdirs();
+        writeContents(next.recordsFile, new byte[0]);
+        return next;
+    }
+
+    /** Makes next (a complete generation) the current one, for this and
+     * for every reader from now on, then deletes the generation before
+     * this one. This one is kept for any reader still using it. */
+    private void switchTo(CommitIndex next) {
+        writeAtomically(join(gitletDir, GRAPH_DIR, CURRENT_FILE),
+                String.valueOf(next.gen).getBytes(StandardCharsets.UTF_8));
+        if (gen > 0) {
+            new CommitIndex(gitletDir, gen - 1).delete();
+        }
+        open(next.gen);
+    }
+
+    /** Deletes this generation's files. */
+    private void delete() {
+        recordsFile.delete();
+        textFile.delete();
+        messages.clear();
+        ids.clear();
+        paths.clear();
+        if (gen > 0) {
+            graphDir.delete();
+        }
+    }
+
+    /** Returns the number of commits in this index. Counted from the
+     * mapped records (not the file), so a reader never goes past what it
+     * has mapped while another process appends. */
+    int size() {
+        return records().capacity() / RECORD_SIZE;
+    }
+
+    /** Returns whether the repo in the given /.gitlet/ directory
+     * has an index yet. */
+    static boolean isBuilt(File gitletDir) {
+        return new CommitIndex(gitletDir).recordsFile.exists();
+    }
+
+    /** Returns the sha value of the commit at position pos. */
+    String getSha(int pos) {
+        return toHex(records(), pos * RECORD_SIZE);
+    }
+
+    /** Returns whether the sha of the commit at position pos starts with
+     * the first nibbles hex digits of the raw sha prefix. */
+    boolean shaStartsWith(int pos, byte[] prefix, int nibbles) {
+        return ShaIndex.startsWith(records(), pos * RECORD_SIZE, prefix,
+                nibbles);
+    }
+
+    /** Returns the shas of at most limit commits starting with the
+     * given hex prefix. */
+    List<String> findPrefix(String prefix, int limit) {
+        List<String> shas = new ArrayList<>();
+        for (int pos : ids.find(this, prefix, limit)) {
+            shas.add(getSha(pos));
+        }
+        return shas;
+    }
+
+    /** Returns the position of the commit with the given (complete) sha,
+     * or -1 if it isn't in the index. */
+    int positionOf(String sha) {
+        if (sha == null || sha.length() != UID_LENGTH) {
+            return -1;
+        }
+        List<Integer> found = ids.find(this, sha, 1);
+        return found.isEmpty() ? -1 : found.get(0);
+    }
+
+    /** Returns whether the commit with sha target is in the history of
+     * (or is) the commit with sha from, walking parents in the index. */
+    boolean reaches(String from, String target) {
+        int goal = positionOf(target);
+        int start = positionOf(from);
+        if (goal < 0 || start < 0) {
+            return false;
+        }
+        BitSet seen = new BitSet(size());
+        ArrayDeque<Integer> fringe = new ArrayDeque<>();
+        fringe.add(start);
+        seen.set(start);
+        while (!fringe.isEmpty()) {
+            int pos = fringe.poll();
+            if (pos == goal) {
+                return true;
+            }
+            Entry e = get(pos);
+            for (String p : new String[] {e.getParent(), e.getSecondParent()}) {
+                int next = positionOf(p);
+                if (next >= 0 && !seen.get(next)) {
+                    seen.set(next);
+                    fringe.add(next);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the positions of the commit with the given sha and all
+     * of its history (empty if it isn't in the index). */
+    BitSet history(String sha) {
+        BitSet seen = new BitSet(size());
+        int start = positionOf(sha);
+        if (start < 0) {
+            return seen;
+        }
+        ArrayDeque<Integer> fringe = new ArrayDeque<>();
+        fringe.add(start);
+        seen.set(start);
+        while (!fringe.isEmpty()) {
+            Entry e = get(fringe.poll());
+            for (String p : new String[] {e.getParent(), e.getSecondParent()}) {
+                int next = positionOf(p);
+                if (next >= 0 && !seen.get(next)) {
+                    seen.set(next);
+                    fringe.add(next);
+                }
+            }
+        }
+        return seen;
+    }
+
+    /** Returns the changed-path filters of these commits. */
+    PathFilters getPathFilters() {
+        return paths;
+    }
+
+    /** Returns the message index of these commits. */
+    MessageIndex getMessageIndex() {
+        return messages;
+    }
+
+    /** Returns the metadata of the commit at position pos. */
+    Entry get(int pos) {
+        return new Entry(pos);
+    }
+
+    /** Returns whether the commit at position pos has exactly the
+     * given (UTF-8 encoded) message. Only message lengths are
+     * compared unless they match. */
+    boolean hasMessage(int pos, byte[] message) {
+        ByteBuffer rec = records();
+        int base = pos * RECORD_SIZE + 3 * SHA_BYTES;
+        if (rec.getInt(base + 8 + 4) != message.length) {
+            return false;
+        }
+        int start = (int) (rec.getLong(base) + rec.getInt(base + 8));
+        ByteBuffer t = text();
+        for (int i = 0; i < message.length; i += 1) {
+            if (t.get(start + i) != message[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The header of one commit, as stored in the index.
+     * Text fields are only decoded when asked for. */
+    class Entry {
+        /** This commit's position in the index. */
+        private final int pos;
+
+        private Entry(int p) {
+            pos = p;
+        }
+
+        /** Returns this commit's position in the index. */
+        int getPosition() {
+            return pos;
+        }
+
+        /** Returns this commit's sha value. */
+        String getSha() {
+            return toHex(records(), pos * RECORD_SIZE);
+        }
+
+        /** Returns the parent's sha, or null for the initial commit. */
+        String getParent() {
+            return toHex(records(), pos * RECORD_SIZE + SHA_BYTES);
+        }
+
+        /** Returns the second parent's sha, or null if not a merge. */
+        String getSecondParent() {
+            return toHex(records(), pos * RECORD_SIZE + 2 * SHA_BYTES);
+        }
+
+        /** Returns this commit's formatted timestamp. */
+        String getTimestamp() {
+            int base = pos * RECORD_SIZE + 3 * SHA_BYTES;
+            long offset = records().getLong(base);
+            return decode(offset, records().getInt(base + 8));
+        }
+
+        /** Returns this commit's message. */
+        String getMessage() {
+            int base = pos * RECORD_SIZE + 3 * SHA_BYTES;
+            long offset = records().getLong(base) + records().getInt(base + 8);
+            return decode(offset, records().getInt(base + 8 + 4));
+        }
+
+        /** Print out the log message for this commit to out. */
+        void printLog(PrintStream out) {
+            Commit.printLog(out, getSha(), getParent(), getSecondParent(),
+                    getTimestamp(), getMessage());
+        }
+    }
+
+    /** Returns the UTF-8 string of len bytes at offset in the text file. */
+    private String decode(long offset, int len) {
+        if (offset + len > text().capacity()) {
+            // text was mapped before this record was appended
+            text = null;
+        }
+        byte[] bytes = new byte[len];
+        ByteBuffer t = text().duplicate();
+        t.position((int) offset);
+        t.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Returns a read-only mapping of the records file
+     * (empty if it DNE). */
+    private ByteBuffer records() {
+        if (records == null) {
+            records = recordsFile.exists() ? map(recordsFile)
+                    : ByteBuffer.allocate(0);
+        }
+        return records;
+    }
+
+    /** Returns a read-only mapping of the text file. */
+    private ByteBuffer text() {
+        if (text == null) {
+            text = map(textFile);
+        }
+        return text;
+    }
+
+    /** Memory-maps all of file f, read-only. */
+    static MappedByteBuffer map(File f) {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            FileChannel ch = raf.getChannel();
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Converts a hex sha value to its raw bytes.
+     * A null sha converts to all zeros. */
+    static byte[] toBytes(String sha) {
+        byte[] result = new byte[SHA_BYTES];
+        if (sha == null) {
+            return result;
+        }
+        for (int i = 0; i < SHA_BYTES; i += 1) {
+            result[i] = (byte) (Character.digit(sha.charAt(2 * i), 16) << 4
+                    | Character.digit(sha.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** Reads a raw sha value at offset in buf and returns it in hex.
+     * Returns null if it is all zeros. */
+    static String toHex(ByteBuffer buf, int offset) {
+        char[] hex = new char[UID_LENGTH];
+        boolean zero = true;
+        for (int i = 0; i < SHA_BYTES; i += 1) {
+            int b = buf.get(offset + i) & 0xff;
+            zero = zero && b == 0;
+            hex[2 * i] = Character.forDigit(b >> 4, 16);
+            hex[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return zero ? null : new String(hex);
+    }
+}
@@ -0,0 +1,335 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Line-level diff engine, used by merge (and anything else that needs
+ * to compare two versions of a file).
+ *
+ * Texts are split into lines without copying them: a Lines object only
+ * records where each line starts, and equal lines are given equal int
+ * ids by a LineTable, so the diff itself only compares ints.
+ * The diff is Myers' O(ND) algorithm in its linear-space form (finding
+ * the middle snake and recursing on both halves, as GNU diff does),
+ * which only needs O(N + M) memory however different the texts are.
+ * @author Cole Tahawi
+ */
+class Diff {
+
+    /** A change: lines [aStart, aEnd) of a were replaced by
+     * lines [bStart, bEnd) of b. Either range may be empty. */
+    static class Hunk {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Hunk(int as, int ae, int bs, int be) {
+            aStart = as;
+            aEnd = ae;
+            bStart = bs;
+            bEnd = be;
+        }
+    }
+
+    /** The lines of a text, with a line's end being just past its '\n'.
+     * A final line without a '\n' is still a line. */
+    static class Lines {
+        /** The whole text. */
+        final String text;
+        /** starts[i] is where line i begins, starts[size()] = length. */
+        final int[] starts;
+        /** ids[i] is line i's id in the LineTable it was added to. */
+        int[] ids;
+
+        /** Splits text into lines. */
+        Lines(String t) {
+            text = t;
+            int count = 0;
+            for (int i = 0; i < t.length(); i += 1) {
+                if (t.charAt(i) == '\n') {
+                    count += 1;
+                }
+            }
+            if (!t.isEmpty() && t.charAt(t.length() - 1) != '\n') {
+                count += 1;
+            }
+            starts = new int[count + 1];
+            int line = 1;
+            for (int i = 0; i < t.length() && line < count; i += 1) {
+                if (t.charAt(i) == '\n') {
+                    starts[line] = i + 1;
+                    line += 1;
+                }
+            }
+            starts[count] = t.length();
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return starts.length - 1;
+        }
+
+        /** Appends lines [from, to) to out. */
+        void appendTo(StringBuilder out, int from, int to) {
+            out.append(text, starts[from], starts[to]);
+        }
+    }
+
+    /** Assigns equal lines (from any number of texts) equal ids,
+     * using an open-addressed table of line positions, so that no
+     * line is ever copied out of its text. */
+    static class LineTable {
+        /** slots[h] is 1 + the id stored there, or 0 if empty. */
+        private int[] slots = new int[1 << 10];
+        /** For each id: the text it came from, and where in that text. */
+        private Lines[] owners = new Lines[1 << 9];
+        private int[] lineNums = new int[1 << 9];
+        /** Number of distinct lines seen so far. */
+        private int size;
+
+        /** Gives every line of lines its id. */
+        void add(Lines lines) {
+            lines.ids = new int[lines.size()];
+            for (int i = 0; i < lines.size(); i += 1) {
+                lines.ids[i] = idOf(lines, i);
+            }
+        }
+
+        /** Returns the id of line i of lines, adding it if it's new. */
+        private int idOf(Lines lines, int i) {
+            if (2 * (size + 1) > slots.length) {
+                grow();
+            }
+            int mask = slots.length - 1;
+            for (int h = hash(lines, i) & mask;; h = (h + 1) & mask) {
+                int id = slots[h] - 1;
+                if (id < 0) {
+                    // new line
+                    if (size == owners.length) {
+                        owners = Arrays.copyOf(owners, 2 * size);
+                        lineNums = Arrays.copyOf(lineNums, 2 * size);
+                    }
+                    owners[size] = lines;
+                    lineNums[size] = i;
+                    slots[h] = size + 1;
+                    size += 1;
+                    return size - 1;
+                } else if (sameLine(owners[id], lineNums[id], lines, i)) {
+                    return id;
+                }
+            }
+        }
+
+        /** Doubles the table, re-placing every id. */
+        private void grow() {
+            int[] old = slots;
+            slots = new int[2 * old.length];
+            int mask = slots.length - 1;
+            for (int slot : old) {
+                if (slot != 0) {
+                    int h = hash(owners[slot - 1], lineNums[slot - 1]) & mask;
+                    while (slots[h] != 0) {
+                        h = (h + 1) & mask;
+                    }
+                    slots[h] = slot;
+                }
+            }
+        }
+
+        /** Returns a hash of line i of lines' characters. */
+        private static int hash(Lines lines, int i) {
+            int h = 0;
+            for (int c = lines.starts[i]; c < lines.starts[i + 1]; c += 1) {
+                h = 31 * h + lines.text.charAt(c);
+            }
+            // spread the bits, since the table is indexed by its low ones
+            return h ^ (h >>> 16);
+        }
+
+        /** Returns whether line i of a and line j of b are the same. */
+        private static boolean sameLine(Lines a, int i, Lines b, int j) {
+            int len = a.starts[i + 1] - a.starts[i];
+            return len == b.starts[j + 1] - b.starts[j]
+                    && a.text.regionMatches(a.starts[i], b.text,
+                    b.starts[j], len);
+        }
+    }
+
+    /** Returns the hunks turning the lines of a into the lines of b,
+     * in order. Both must have been added to the same LineTable. */
+    static List<Hunk> diff(Lines a, Lines b) {
+        return new Diff(a.ids, b.ids).hunks();
+    }
+
+    /** The two id sequences being compared. */
+    private final int[] xv;
+    private final int[] yv;
+    /** Which lines of each sequence are not part of the common subsequence. */
+    private final boolean[] changedX;
+    private final boolean[] changedY;
+    /** Furthest-reaching x on each diagonal, top-down and bottom-up.
+     * Diagonal d (= x - y) is stored at index d + diagOffset. */
+    private final int[] fd;
+    private final int[] bd;
+    private final int diagOffset;
+    /** Edit steps after which a middle snake search settles for a
+     * good, rather than optimal, split point. */
+    private final int tooExpensive;
+
+    /** Compares x to y. */
+    private Diff(int[] x, int[] y) {
+        xv = x;
+        yv = y;
+        changedX = new boolean[x.length];
+        changedY = new boolean[y.length];
+        int diags = x.length + y.length + 3;
+        fd = new int[diags];
+        bd = new int[diags];
+        diagOffset = y.length + 1;
+        tooExpensive = Math.max(4096,
+                1 << ((32 - Integer.numberOfLeadingZeros(diags)) / 2));
+        compareseq(0, x.length, 0, y.length);
+    }
+
+    /** Returns the hunks found by the comparison. */
+    private List<Hunk> hunks() {
+        List<Hunk> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < xv.length || j < yv.length) {
+            if (i < xv.length && j < yv.length
+                    && !changedX[i] && !changedY[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int as = i;
+            int bs = j;
+            while (i < xv.length && changedX[i]) {
+                i += 1;
+            }
+            while (j < yv.length && changedY[j]) {
+                j += 1;
+            }
+            result.add(new Hunk(as, i, bs, j));
+        }
+        return result;
+    }
+
+    /** Marks the changed lines of xv[xoff, xlim) and yv[yoff, ylim). */
+    private void compareseq(int xoff, int xlim, int yoff, int ylim) {
+        // skip the common prefix and suffix
+        while (xoff < xlim && yoff < ylim && xv[xoff] == yv[yoff]) {
+            xoff += 1;
+            yoff += 1;
+        }
+        while (xoff < xlim && yoff < ylim
+                && xv[xlim - 1] == yv[ylim - 1]) {
+            xlim -= 1;
+            ylim -= 1;
+        }
+        if (xoff == xlim) {
+            for (int y = yoff; y < ylim; y += 1) {
+                changedY[y] = true;
+            }
+        } else if (yoff == ylim) {
+            for (int x = xoff; x < xlim; x += 1) {
+                changedX[x] = true;
+            }
+        } else {
+            // split at a point on a shortest edit path, and recurse
+            long mid = diag(xoff, xlim, yoff, ylim);
+            int xmid = (int) (mid >>> 32);
+            int ymid = (int) mid;
+            compareseq(xoff, xmid, yoff, ymid);
+            compareseq(xmid, xlim, ymid, ylim);
+        }
+    }
+
+    /** Finds the midpoint of a shortest edit script for
+     * xv[xoff, xlim) and yv[yoff, ylim), searching from both ends at once
+     * until the searches overlap. Returns it as (xmid << 32 | ymid). */
+    private long diag(int xoff, int xlim, int yoff, int ylim) {
+        final int off = diagOffset;
+        final int dmin = xoff - ylim;
+        final int dmax = xlim - yoff;
+        final int fmid = xoff - yoff;
+        final int bmid = xlim - ylim;
+        int fmin = fmid;
+        int fmax = fmid;
+        int bmin = bmid;
+        int bmax = bmid;
+        final boolean odd = ((fmid - bmid) & 1) != 0;
+        fd[fmid + off] = xoff;
+        bd[bmid + off] = xlim;
+        for (int c = 1;; c += 1) {
+            // extend the top-down search by one edit step
+            if (fmin > dmin) {
+                fmin -= 1;
+                fd[fmin - 1 + off] = -1;
+            } else {
+                fmin += 1;
+            }
+            if (fmax < dmax) {
+                fmax += 1;
+                fd[fmax + 1 + off] = -1;
+            } else {
+                fmax -= 1;
+            }
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int tlo = fd[d - 1 + off];
+                int thi = fd[d + 1 + off];
+                int x = tlo < thi ? thi : tlo + 1;
+                int y = x - d;
+                while (x < xlim && y < ylim && xv[x] == yv[y]) {
+                    x += 1;
+                    y += 1;
+                }
+                fd[d + off] = x;
+                if (odd && bmin <= d && d <= bmax && bd[d + off] <= x) {
+                    return ((long) x << 32) | y;
+                }
+            }
+            // extend the bottom-up search by one edit step
+            if (bmin > dmin) {
+                bmin -= 1;
+                bd[bmin - 1 + off] = Integer.MAX_VALUE;
+            } else {
+                bmin += 1;
+            }
+            if (bmax < dmax) {
+                bmax += 1;
+                bd[bmax + 1 + off] = Integer.MAX_VALUE;
+            } else {
+                bmax -= 1;
+            }
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int tlo = bd[d - 1 + off];
+                int thi = bd[d + 1 + off];
+                int x = tlo < thi ? tlo : thi - 1;
+                int y = x - d;
+                while (xoff < x && yoff < y && xv[x - 1] == yv[y - 1]) {
+                    x -= 1;
+                    y -= 1;
+                }
+                bd[d + off] = x;
+                if (!odd && fmin <= d && d <= fmax && x <= fd[d + off]) {
+                    return ((long) x << 32) | y;
+                }
+            }
+            if (c >= tooExpensive) {
+                // give up on optimality: take the furthest top-down point
+                int best = fmax;
+                for (int d = fmax; d >= fmin; d -= 2) {
+                    if (2 * fd[d + off] - d > 2 * fd[best + off] - best) {
+                        best = d;
+                    }
+                }
+                int x = Math.min(fd[best + off], xlim);
+                return ((long) x << 32) | Math.min(x - best, ylim);
+            }
+        }
+    }
+}
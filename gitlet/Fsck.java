@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import static gitlet.Utils.*;
+
+/** Checks a repo's objects for corruption and broken references.
+ *
+ * Every commit and blob file is read and rehashed on a work-stealing
+ * ForkJoinPool, each task splitting its share of the files until it's
+ * small enough to check directly, so idle threads take over the work of
+ * busy ones and the disk is always kept busy. The commits' parents and
+ * blobs are gathered as they're read, and checked against what exists
+ * afterwards. Parents cut off by a shallow clone, and blobs a blobless
+ * clone hasn't fetched yet, are not reported as missing.
+ * @author Cole Tahawi
+ */
+class Fsck {
+    /** Files a task checks itself rather than splitting further. */
+    private static final int BATCH = 16;
+
+    /** Problems found, one per line (e.g. "missing blob [sha]"). */
+    private final Set<String> problems = ConcurrentHashMap.newKeySet();
+    /** K = sha of each readable commit, V = its parents' shas. */
+    private final Map<String, String[]> parents = new ConcurrentHashMap<>();
+    /** Shas of the blobs readable commits use. */
+    private final Set<String> usedBlobs = ConcurrentHashMap.newKeySet();
+
+    /** Checks this repo, whose branches' heads (and the commits their
+     * reflogs record) are the commits in roots, and whose staged blobs
+     * are staged. Returns the problems found, in order (empty if none). */
+    List<String> check(Collection<String> roots, Set<String> staged) {
+        String[] commits = objectNames(Repository.COMMITS_DIR);
+        String[] blobs = objectNames(Repository.BLOBS_DIR);
+        ForkJoinPool pool = new ForkJoinPool(
+                Math.max(2, 2 * Runtime.getRuntime().availableProcessors()));
+        try {
+            pool.invoke(new CheckFiles(commits, 0, commits.length, true));
+            pool.invoke(new CheckFiles(blobs, 0, blobs.length, false));
+        } finally {
+            pool.shutdown();
+        }
+        Set<String> blobSet = Set.of(blobs);
+        /** broken references */
+        Set<String> shallow = PartialClone.getShallow();
+        for (Map.Entry<String, String[]> e : parents.entrySet()) {
+            for (String p : e.getValue()) {
+                if (p != null && !parents.containsKey(p)
+                        && !shallow.contains(e.getKey())) {
+                    problems.add("missing commit " + p);
+                }
+            }
+        }
+        for (String sha : roots) {
+            if (!parents.containsKey(sha)) {
+                problems.add("missing commit " + sha);
+            }
+        }
+        if (!PartialClone.isBlobless()) {
+            for (String sha : usedBlobs) {
+                if (!blobSet.contains(sha)) {
+                    problems.add("missing blob " + sha);
+                }
+            }
+        }
+        /** objects nothing refers to */
+        Set<String> reachable = reachableFrom(roots);
+        for (String sha : commits) {
+            if (!reachable.contains(sha)) {
+                problems.add("dangling commit " + sha);
+            }
+        }
+        for (String sha : blobs) {
+            if (!usedBlobs.contains(sha) && !staged.contains(sha)) {
+                problems.add("dangling blob " + sha);
+            }
+        }
+        List<String> sorted = new ArrayList<>(problems);
+        sorted.sort(null);
+        return sorted;
+    }
+
+    /** Checks names[lo, hi) (commit files if commits, else blob files),
+     * splitting the range across the pool when it's large. (Never
+     * serialized, though ForkJoinTask is Serializable.) */
+    @SuppressWarnings("serial")
+    private class CheckFiles extends RecursiveAction {
+        /** The files' names, the range to check, and their kind. */
+        private final String[] names;
+        private final int lo;
+        private final int hi;
+        private final boolean commits;
+
+        /** A task checking names[lo, hi). */
+        CheckFiles(String[] names, int lo, int hi, boolean commits) {
+            this.names = names;
+            this.lo = lo;
+            this.hi = hi;
+            this.commits = commits;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= BATCH) {
+                for (int i = lo; i < hi; i += 1) {
+                    if (commits) {
+                        checkCommit(names[i]);
+                    } else {
+                        checkBlob(names[i]);
+                    }
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new CheckFiles(names, lo, mid, commits),
+                      new CheckFiles(names, mid, hi, commits));
+        }
+    }
+
+    /** Rehashes the commit file named sha, and records its references. */
+    private void checkCommit(String sha) {
+        byte[] bytes = read(join(Repository.COMMITS_DIR, sha));
+        if (bytes == null || !Commit.verify(bytes, sha)) {
+            problems.add("corrupt commit " + sha);
+            return;
+        }
+        Commit c;
+        try {
+            c = deserialize(bytes, Commit.class);
+        } catch (IllegalArgumentException excp) {
+            problems.add("corrupt commit " + sha);
+            return;
+        }
+        usedBlobs.addAll(c.getBlobMap().values());
+        parents.put(sha, new String[] {c.getParent(), c.getSecondParent()});
+    }
+
+    /** Rehashes the blob file named sha. */
+    private void checkBlob(String sha) {
+        byte[] bytes = read(join(Repository.BLOBS_DIR, sha));
+        if (bytes == null || !Blob.verify(bytes, sha)) {
+            problems.add("corrupt blob " + sha);
+        }
+    }
+
+    /** Returns the shas of the readable commits reachable from roots. */
+    private Set<String> reachableFrom(Collection<String> roots) {
+        Set<String> reachable = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>(roots);
+        while (!stack.isEmpty()) {
+            String sha = stack.pop();
+            String[] ps = parents.get(sha);
+            if (ps != null && reachable.add(sha)) {
+                for (String p : ps) {
+                    if (p != null) {
+                        stack.push(p);
+                    }
+                }
+            }
+        }
+        return reachable;
+    }
+
+    /** Returns the bytes of file f, or null if it can't be read. */
+    private static byte[] read(File f) {
+        try {
+            return Files.readAllBytes(f.toPath());
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
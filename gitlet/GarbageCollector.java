@@ -0,0 +1,203 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import static gitlet.Utils.*;
+
+/** Deletes the commits and blobs that nothing refers to any more (e.g.
+ * after reset or rm-branch), and the files crashed commands left behind.
+ *
+ * Marking walks the commit graph through the CommitIndex from the given
+ * roots, setting each live commit's position in a BitSet. Blobs are
+ * given positions too, by sorting /blobs/'s file names, and the live
+ * commits are read in parallel to mark the blobs they use in a second
+ * BitSet. The index is then compacted down to the live commits (into a
+ * new generation, copied from the old one, see CommitIndex.compact), so
+ * it never names a deleted commit, and everything unmarked is deleted in
+ * parallel. Must be run holding the repo's lock. A shallow repo's
+ * missing parents, and a blobless repo's missing blobs, are just never
+ * marked.
+ * @author Cole Tahawi
+ */
+class GarbageCollector {
+    /** Directories that transfers unpack into (see Remote and Bundle). */
+    private static final String[] TEMP_DIRS = {"transfer-tmp", "bundle-tmp"};
+
+    /** The index of the commits being collected. */
+    private final CommitIndex index;
+    /** Number of commits, blobs and other files deleted. */
+    private int commitsRemoved;
+    private int blobsRemoved;
+    private int filesRemoved;
+
+    /** A collector of this repo's objects. */
+    GarbageCollector() {
+        index = CommitIndex.local();
+    }
+
+    /** Deletes every commit not reachable from the commits with the shas
+     * in roots, every blob none of the remaining commits use (except
+     * the blobs with shas in staged), every file in /staged/ that isn't
+     * one of staged, and every temporary file. */
+    void collect(Collection<String> roots, Set<String> staged) {
+        // (a command that crashed may have saved a commit w/o indexing it)
+        if (index.size() != objectNames(Repository.COMMITS_DIR).length) {
+            index.rebuild(Repository.COMMITS_DIR);
+        }
+        BitSet liveCommits = markCommits(roots);
+        List<String> commitShas = new ArrayList<>();
+        for (int pos = liveCommits.nextSetBit(0); pos >= 0;
+             pos = liveCommits.nextSetBit(pos + 1)) {
+            commitShas.add(index.getSha(pos));
+        }
+        String[] blobs = objectNames(Repository.BLOBS_DIR);
+        BitSet liveBlobs = markBlobs(commitShas, blobs);
+        for (String sha : staged) {
+            int i = Arrays.binarySearch(blobs, sha);
+            if (i >= 0) {
+                liveBlobs.set(i);
+            }
+        }
+        /** sweep */
+        List<File> doomed = new ArrayList<>();
+        for (String sha : objectNames(Repository.COMMITS_DIR)) {
+            int pos = index.positionOf(sha);
+            if (pos < 0 || !liveCommits.get(pos)) {
+                doomed.add(join(Repository.COMMITS_DIR, sha));
+            }
+        }
+        commitsRemoved = doomed.size();
+        for (int i = liveBlobs.nextClearBit(0); i < blobs.length;
+             i = liveBlobs.nextClearBit(i + 1)) {
+            doomed.add(join(Repository.BLOBS_DIR, blobs[i]));
+        }
+        blobsRemoved = doomed.size() - commitsRemoved;
+        if (commitsRemoved > 0) {
+            index.compact(liveCommits);
+        }
+        doomed.parallelStream().forEach(File::delete);
+        if (commitsRemoved > 0) {
+            pruneShallow();
+        }
+        filesRemoved = removeStaleFiles(staged);
+    }
+
+    /** Returns the number of commits deleted. */
+    int getCommitsRemoved() {
+        return commitsRemoved;
+    }
+
+    /** Returns the number of blobs deleted. */
+    int getBlobsRemoved() {
+        return blobsRemoved;
+    }
+
+    /** Returns the number of stale staged and temporary files deleted. */
+    int getFilesRemoved() {
+        return filesRemoved;
+    }
+
+    /** Returns the positions of the commits reachable from roots. */
+    private BitSet markCommits(Collection<String> roots) {
+        BitSet live = new BitSet(index.size());
+        ArrayDeque<String> stack = new ArrayDeque<>(roots);
+        while (!stack.isEmpty()) {
+            String sha = stack.pop();
+            int pos = index.positionOf(sha);
+            if (pos < 0) {
+                if (join(Repository.COMMITS_DIR, sha).exists()) {
+                    // a commit the index lacks: never guess what's live
+                    throw error("The commit index is out of date.");
+                }
+                continue; // beyond a shallow repo's history
+            }
+            if (live.get(pos)) {
+                continue;
+            }
+            live.set(pos);
+            CommitIndex.Entry e = index.get(pos);
+            for (String p : new String[] {e.getParent(),
+                                          e.getSecondParent()}) {
+                if (p != null) {
+                    stack.push(p);
+                }
+            }
+        }
+        return live;
+    }
+
+    /** Returns the positions, in blobs (sorted), of the blobs used by
+     * the commits with the given shas, read in parallel. */
+    private static BitSet markBlobs(List<String> commitShas, String[] blobs) {
+        return commitShas.parallelStream().collect(BitSet::new,
+            (live, sha) -> {
+                for (String blob : Commit.readCommit(sha).getBlobMap()
+                        .values()) {
+                    int i = Arrays.binarySearch(blobs, blob);
+                    if (i >= 0) {
+                        live.set(i);
+                    }
+                }
+            }, BitSet::or);
+    }
+
+    /** Drops deleted commits from the list of a shallow repo's cut-off
+     * commits. */
+    private static void pruneShallow() {
+        if (!PartialClone.SHALLOW_FILE.exists()) {
+            return;
+        }
+        Set<String> shallow = PartialClone.getShallow();
+        shallow.removeIf(sha -> !join(Repository.COMMITS_DIR, sha).exists());
+        PartialClone.setShallow(shallow);
+    }
+
+    /** Deletes every file in /staged/ that isn't one of staged, the
+     * temporary directories, and temporary files left by writes that
+     * never finished (see Utils.writeAtomically). Returns how many
+     * files were deleted. */
+    private static int removeStaleFiles(Set<String> staged) {
+        Set<File> stale = new HashSet<>();
+        List<String> stagedNames = plainFilenamesIn(Repository.STAGED_DIR);
+        if (stagedNames != null) {
+            for (String name : stagedNames) {
+                if (!staged.contains(name)) {
+                    stale.add(join(Repository.STAGED_DIR, name));
+                }
+            }
+        }
+        for (String name : TEMP_DIRS) {
+            List<String> names = plainFilenamesIn(
+                    join(Repository.GITLET_DIR, name));
+            if (names != null) {
+                for (String f : names) {
+                    stale.add(join(Repository.GITLET_DIR, name, f));
+                }
+            }
+        }
+        try (Stream<Path> files = Files.walk(Repository.GITLET_DIR.toPath())) {
+            files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(".") && name.endsWith(".tmp");
+            }).forEach(p -> stale.add(p.toFile()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        stale.parallelStream().forEach(File::delete);
+        for (String name : TEMP_DIRS) {
+            join(Repository.GITLET_DIR, name).delete();
+        }
+        return stale.size();
+    }
+}
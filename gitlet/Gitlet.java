@@ -0,0 +1,827 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import static gitlet.Utils.*;
+
+/** Gitlet as a library, for running many commands in one process
+ * (Main is a thin adapter over run).
+ *
+ * Each method is one command on the repo in the working directory, and
+ * behaves just like it does on the command line: commands that change
+ * the repo hold its lock (see RepoLock) and save it when they're done,
+ * and commands that only read do neither. Nothing here exits: a command
+ * that fails throws a GitletException, whose message is the error the
+ * command line prints, without saving the repo. What a command prints
+ * goes to the output stream this was made with; what it finds (e.g.
+ * commit ids) is returned.
+ * A batch (see batch) runs many commands on a repo that's locked and
+ * read just once, and saved only at checkpoints.
+ * @author Cole Tahawi
+ */
+public class Gitlet {
+    /** Where commands print to. */
+    private final PrintStream out;
+    /** The repo, while a batch runs (it's locked meanwhile). */
+    private Repository held;
+
+    /** Gitlet printing to out. */
+    public Gitlet(PrintStream out) {
+        this.out = out;
+    }
+
+    /** Runs the command line in args (e.g. {"commit", "message"}),
+     * printing whatever the command would. */
+    public void run(String... args) {
+        // if no command given
+        if (args.length == 0) {
+            throw error("Please enter a command.");
+        }
+        // if repo should have been initialized previously
+        if (!args[0].equals("init") && !args[0].equals("clone")
+                && !Repository.REPO_FILE.exists()) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        switch (args[0]) {
+            case "init":
+                init();
+                break;
+            case "clone":
+                // clone [remote path] (--depth [n]) (--filter=blob:none)
+                runClone(args);
+                break;
+            case "add":
+                if (args.length != 2) {
+                    throw incorrectOps();
+                }
+                add(args[1]);
+                break;
+            case "rm":
+                if (args.length != 2) {
+                    throw incorrectOps();
+                }
+                rm(args[1]);
+                break;
+            case "commit":
+                commit(args.length < 2 ? "" : args[1]);
+                break;
+            case "checkout":
+                /** checkout file */
+                if (args.length == 3 && args[1].equals("--")) {
+                    checkoutFile(args[2]);
+                /** checkout branch */
+                } else if (args.length == 2) {
+                    checkout(args[1]);
+                /** checkout a given file from a given commit */
+                } else if (args.length == 4 && args[2].equals("--")) {
+                    checkoutFile(args[1], args[3]);
+                } else {
+                    throw incorrectOps();
+                }
+                break;
+            case "log":
+                /** history of one file */
+                if (args.length == 3 && args[1].equals("--")) {
+                    log(args[2]);
+                } else if (args.length == 1) {
+                    log();
+                } else {
+                    throw incorrectOps();
+                }
+                break;
+            case "global-log":
+                if (args.length != 1) {
+                    throw incorrectOps();
+                }
+                globalLog();
+                break;
+            case "status":
+                if (args.length != 1) {
+                    throw incorrectOps();
+                }
+                status();
+                break;
+            case "find":
+                runFind(args);
+                break;
+            case "diff":
+                runDiff(args);
+                break;
+            case "branch":
+                if (args.length != 2) {
+                    throw incorrectOps();
+                }
+                branch(args[1]);
+                break;
+            case "rm-branch":
+                if (args.length != 2) {
+                    throw incorrectOps();
+                }
+                rmBranch(args[1]);
+                break;
+            case "reset":
+                if (args.length != 2) {
+                    throw incorrectOps();
+                }
+                reset(args[1]);
+                break;
+            case "add-remote":
+                if (args.length != 3) {
+                    throw incorrectOps();
+                }
+                addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                if (args.length != 2) {
+                    throw incorrectOps();
+                }
+                rmRemote(args[1]);
+                break;
+            case "push":
+            case "fetch":
+            case "pull":
+                if (args.length != 3) {
+                    throw incorrectOps();
+                }
+                if (args[0].equals("push")) {
+                    push(args[1], args[2]);
+                } else if (args[0].equals("fetch")) {
+                    fetch(args[1], args[2]);
+                } else {
+                    pull(args[1], args[2]);
+                }
+                break;
+            case "bundle":
+                // bundle create [file] [branch] (--since [commit id])
+                if (args.length == 4 && args[1].equals("create")) {
+                    createBundle(new File(args[2]), args[3], null);
+                } else if (args.length == 6 && args[1].equals("create")
+                        && args[4].equals("--since")) {
+                    createBundle(new File(args[2]), args[3], args[5]);
+                } else if (args.length == 3 && args[1].equals("unbundle")) {
+                    unbundle(new File(args[2]));
+                } else {
+                    throw incorrectOps();
+                }
+                break;
+            case "merge":
+                if (args.length != 2) {
+                    throw incorrectOps();
+                }
+                merge(args[1]);
+                break;
+            case "gc":
+                if (args.length != 1) {
+                    throw incorrectOps();
+                }
+                gc();
+                break;
+            case "fsck":
+                if (args.length != 1) {
+                    throw incorrectOps();
+                }
+                fsck();
+                break;
+            case "reflog":
+                runReflog(args);
+                break;
+            case "pack-refs":
+                if (args.length != 1) {
+                    throw incorrectOps();
+                }
+                packRefs();
+                break;
+            default:
+                throw error("No command with that name exists.");
+        }
+    }
+
+    /** Runs the command lines read from in (one per line, see
+     * parseLine), printing what each prints or its error, just as if
+     * each were run on its own. The repo is locked and read once, and
+     * saved after every checkpoint commands (if checkpoint > 0) and at
+     * the end. A command that fails (even with an unexpected exception)
+     * leaves the repo as it was before, and the batch goes on. */
+    public void batch(BufferedReader in, int checkpoint) throws IOException {
+        // if repo should have been initialized previously
+        if (!Repository.REPO_FILE.exists()) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        Trace.phase("lock");
+        lock();
+        try {
+            Trace.phase("load");
+            held = load();
+            int sinceSave = 0;
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                byte[] before = null;
+                try {
+                    // (a bad line is reported like a failed command)
+                    String[] args = parseLine(line);
+                    if (args.length == 0) {
+                        continue; // blank, or a comment
+                    }
+                    Trace.phase("run");
+                    before = serialize(held);
+                    run(args);
+                } catch (RuntimeException excp) {
+                    // (anything else is a bug, but mustn't end the batch)
+                    out.println((excp instanceof GitletException)
+                            ? excp.getMessage() : "Command failed: " + excp);
+                    // undo whatever it did to the repo (it isn't saved)
+                    if (before != null) {
+                        held = deserialize(before, Repository.class);
+                        held.setOutput(out);
+                    }
+                }
+                sinceSave += 1;
+                if (checkpoint > 0 && sinceSave >= checkpoint) {
+                    Trace.phase("save");
+                    Repository.saveRepo(held);
+                    sinceSave = 0;
+                }
+            }
+            Trace.phase("save");
+            Repository.saveRepo(held);
+        } finally {
+            held = null;
+            RepoLock.releaseAll();
+        }
+    }
+
+    /** Splits a command line into its arguments: words separated by
+     * whitespace, where '...' or "..." quotes (part of) a word, and a
+     * backslash outside single quotes escapes the next character. A line
+     * starting with '#' is a comment, and has no arguments. */
+    static String[] parseLine(String line) {
+        List<String> args = new ArrayList<>();
+        if (line.strip().startsWith("#")) {
+            return new String[0];
+        }
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false;
+        char quote = 0; // the open quote, if any
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c == '\\' && quote != '\'' && i + 1 < line.length()) {
+                i += 1;
+                word.append(line.charAt(i));
+                inWord = true;
+            } else if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inWord = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inWord) {
+                    args.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (quote != 0) {
+            throw incorrectOps();
+        }
+        if (inWord) {
+            args.add(word.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /** Parses the clone command's options, and clones. */
+    private void runClone(String[] args) {
+        if (args.length < 2) {
+            throw incorrectOps();
+        }
+        int depth = 0;
+        boolean blobless = false;
+        for (int i = 2; i < args.length; i += 1) {
+            if (args[i].equals("--filter=blob:none")) {
+                blobless = true;
+            } else if (args[i].equals("--depth") && i + 1 < args.length) {
+                try {
+                    depth = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException excp) {
+                    throw incorrectOps();
+                }
+                if (depth < 1) {
+                    throw incorrectOps();
+                }
+                i += 1;
+            } else {
+                throw incorrectOps();
+            }
+        }
+        clone(args[1], depth, blobless);
+    }
+
+    /** Parses the find command's options, and prints what it finds. */
+    private void runFind(String[] args) {
+        if (args.length < 2) {
+            throw incorrectOps();
+        }
+        List<String> found;
+        /** search by words in messages */
+        if (args[1].equals("--grep")) {
+            if (args.length < 3) {
+                throw incorrectOps();
+            }
+            found = grep(Arrays.asList(args).subList(2, args.length));
+        } else {
+            found = find(args[1]);
+        }
+        // if no matching messages found
+        if (found.isEmpty()) {
+            throw error("Found no commit with that message.");
+        }
+        for (String sha : found) {
+            out.println(sha);
+        }
+    }
+
+    /** Parses the reflog command's options, and prints the reflog:
+     * reflog ([branch]) (-n [count]), or expires its entries older than
+     * Reflog.EXPIRE_DAYS (or n) days, or all of them:
+     * reflog expire (--all | --days [n]). */
+    private void runReflog(String[] args) {
+        if (args.length > 1 && args[1].equals("expire")) {
+            int days = Reflog.EXPIRE_DAYS;
+            if (args.length == 3 && args[2].equals("--all")) {
+                days = 0;
+            } else if (args.length == 4 && args[2].equals("--days")) {
+                try {
+                    days = Integer.parseInt(args[3]);
+                } catch (NumberFormatException excp) {
+                    throw incorrectOps();
+                }
+                if (days <= 0) {
+                    throw incorrectOps();
+                }
+            } else if (args.length != 2) {
+                throw incorrectOps();
+            }
+            expireReflogs(days);
+            return;
+        }
+        String name = Reflog.HEAD;
+        int limit = -1;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("-n") && i + 1 < args.length) {
+                try {
+                    limit = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException excp) {
+                    throw incorrectOps();
+                }
+                if (limit < 0) {
+                    throw incorrectOps();
+                }
+                i += 1;
+            } else if (name.equals(Reflog.HEAD) && !args[i].startsWith("-")) {
+                name = args[i];
+            } else {
+                throw incorrectOps();
+            }
+        }
+        reflog(name, limit);
+    }
+
+    /** Parses the diff command's options, and diffs. */
+    private void runDiff(String[] args) {
+        boolean stat = false;
+        boolean staged = false;
+        ArrayDeque<String> commits = new ArrayDeque<>();
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--stat")) {
+                stat = true;
+            } else if (args[i].equals("--staged")
+                    || args[i].equals("--cached")) {
+                staged = true;
+            } else {
+                commits.add(args[i]);
+            }
+        }
+        /** between two commits */
+        if (commits.size() == 2 && !staged) {
+            diff(commits.pollFirst(), commits.pollFirst(), stat);
+        /** staging area vs head commit */
+        } else if (commits.isEmpty() && staged) {
+            diffStaged(stat);
+        /** working files vs staging area */
+        } else if (commits.isEmpty()) {
+            diff(stat);
+        } else {
+            throw incorrectOps();
+        }
+    }
+
+    /** Creates a repo in the working directory. */
+    public void init() {
+        Trace.phase("lock");
+        lock();
+        Trace.phase("run");
+        try {
+            Repository repo = Repository.initRepository();
+            // if already initialized repo
+            if (repo == null) {
+                throw error("A Gitlet version-control system"
+                        + " already exists in the current directory.");
+            }
+            Trace.phase("save");
+            Repository.saveRepo(repo);
+        } finally {
+            unlock();
+        }
+    }
+
+    /** Clones the repo whose /.gitlet/ is at path into the working
+     * directory. If depth > 0, copies only that many generations of
+     * history; if blobless, copies only the checked out commit's blobs. */
+    public void clone(String path, int depth, boolean blobless) {
+        Trace.phase("lock");
+        lock();
+        Trace.phase("run");
+        try {
+            Repository repo = Repository.cloneRepository(path, depth,
+                    blobless);
+            // if already initialized repo
+            if (repo == null) {
+                throw error("A Gitlet version-control system"
+                        + " already exists in the current directory.");
+            }
+            Trace.phase("save");
+            Repository.saveRepo(repo);
+        } finally {
+            unlock();
+        }
+    }
+
+    /** Stages the working file at path (relative to the working dir). */
+    public void add(String path) {
+        write(repo -> {
+            if (!repo.stageFile(keyOf(path))) {
+                throw error("File does not exist.");
+            }
+            return null;
+        });
+    }
+
+    /** Unstages the file at path, or stages it for removal. */
+    public void rm(String path) {
+        write(repo -> {
+            if (!repo.removeFile(keyOf(path))) {
+                throw error("No reason to remove the file.");
+            }
+            return null;
+        });
+    }
+
+    /** Commits what's staged, with the given message.
+     * Returns the new commit's id. */
+    public String commit(String message) {
+        return write(repo -> {
+            if (message == null || message.equals("")) {
+                throw error("Please enter a commit message.");
+            }
+            if (!repo.makeCommit(message)) {
+                throw error("No changes added to the commit.");
+            }
+            return repo.getHeadSha();
+        });
+    }
+
+    /** Checks out the file at path from the head commit. */
+    public void checkoutFile(String path) {
+        write(repo -> {
+            repo.checkoutFile(keyOf(path));
+            return null;
+        });
+    }
+
+    /** Checks out the file at path from the commit with the given id
+     * (or unique prefix of one). */
+    public void checkoutFile(String commitId, String path) {
+        write(repo -> {
+            repo.checkoutFileFromCommit(keyOf(path),
+                    Repository.getFullSha(commitId));
+            return null;
+        });
+    }
+
+    /** Checks out the given branch. */
+    public void checkout(String branch) {
+        write(repo -> {
+            repo.checkoutBranch(branch);
+            return null;
+        });
+    }
+
+    /** Prints the log of the current branch. */
+    public void log() {
+        read(repo -> {
+            repo.printLog();
+            return null;
+        });
+    }
+
+    /** Prints the log of the commits that changed the file at path. */
+    public void log(String path) {
+        read(repo -> {
+            repo.printLog(keyOf(path));
+            return null;
+        });
+    }
+
+    /** Prints the log of every commit. */
+    public void globalLog() {
+        read(repo -> {
+            repo.printGlobalLog();
+            return null;
+        });
+    }
+
+    /** Prints the repo's status. */
+    public void status() {
+        read(repo -> {
+            repo.printStatus();
+            return null;
+        });
+    }
+
+    /** Returns the ids of the commits with the given message. */
+    public List<String> find(String message) {
+        return read(repo -> repo.findCommits(message));
+    }
+
+    /** Returns the ids of the commits whose messages contain every one of
+     * terms (see Repository.grepCommits). */
+    public List<String> grep(List<String> terms) {
+        return read(repo -> repo.grepCommits(terms));
+    }
+
+    /** Prints the diff of the working files against the staging area
+     * (only the number of changed lines, if stat). */
+    public void diff(boolean stat) {
+        read(repo -> {
+            repo.printDiff(stat);
+            return null;
+        });
+    }
+
+    /** Prints the diff of the staging area against the head commit. */
+    public void diffStaged(boolean stat) {
+        read(repo -> {
+            repo.printStagedDiff(stat);
+            return null;
+        });
+    }
+
+    /** Prints the diff between the commits with the given ids. */
+    public void diff(String commitId1, String commitId2, boolean stat) {
+        read(repo -> {
+            String c1 = Repository.getFullSha(commitId1);
+            String c2 = Repository.getFullSha(commitId2);
+            if (c1 == null || c2 == null
+                    || !repo.printCommitDiff(c1, c2, stat)) {
+                throw error("No commit with that id exists.");
+            }
+            return null;
+        });
+    }
+
+    /** Creates a branch at the head commit. */
+    public void branch(String name) {
+        write(repo -> {
+            // if name taken
+            if (!repo.makeBranch(name)) {
+                throw error("A branch with that name already exists.");
+            }
+            return null;
+        });
+    }
+
+    /** Deletes the given branch. */
+    public void rmBranch(String name) {
+        write(repo -> {
+            repo.removeBranch(name);
+            return null;
+        });
+    }
+
+    /** Checks out the commit with the given id, and moves the current
+     * branch to it. */
+    public void reset(String commitId) {
+        write(repo -> {
+            String sha = Repository.getFullSha(commitId);
+            if (sha == null || !repo.reset(sha)) {
+                throw error("No commit with that id exists.");
+            }
+            return null;
+        });
+    }
+
+    /** Merges the given branch into the current one.
+     * Returns whether there were conflicts. */
+    public boolean merge(String branch) {
+        return write(repo -> repo.merge(branch));
+    }
+
+    /** Records the remote whose /.gitlet/ is at path under name. */
+    public void addRemote(String name, String path) {
+        write(repo -> {
+            if (!repo.addRemote(name, path)) {
+                throw error("A remote with that name already exists.");
+            }
+            return null;
+        });
+    }
+
+    /** Forgets the given remote. */
+    public void rmRemote(String name) {
+        write(repo -> {
+            if (!repo.removeRemote(name)) {
+                throw error("A remote with that name does not exist.");
+            }
+            return null;
+        });
+    }
+
+    /** Pushes the current branch to branch of the given remote. */
+    public void push(String remote, String branch) {
+        write(repo -> {
+            repo.push(remote, branch);
+            return null;
+        });
+    }
+
+    /** Fetches branch of the given remote into [remote]/[branch]. */
+    public void fetch(String remote, String branch) {
+        write(repo -> {
+            repo.fetch(remote, branch);
+            return null;
+        });
+    }
+
+    /** Fetches branch of the given remote, and merges it.
+     * Returns whether there were conflicts. */
+    public boolean pull(String remote, String branch) {
+        return write(repo -> repo.pull(remote, branch));
+    }
+
+    /** Writes branch, and its history, to file. If sinceId isn't null,
+     * leaves out that commit's history. */
+    public void createBundle(File file, String branch, String sinceId) {
+        write(repo -> {
+            String since = null;
+            if (sinceId != null) {
+                since = Repository.getFullSha(sinceId);
+                if (since == null) {
+                    throw error("No commit with that id exists.");
+                }
+            }
+            repo.createBundle(file, branch, since);
+            return null;
+        });
+    }
+
+    /** Unpacks the bundle in file into branch bundle/[branch]. */
+    public void unbundle(File file) {
+        write(repo -> {
+            repo.unbundle(file);
+            return null;
+        });
+    }
+
+    /** Deletes unreachable commits and blobs, and stale files. */
+    public void gc() {
+        write(repo -> {
+            repo.gc();
+            return null;
+        });
+    }
+
+    /** Checks every object and reference, printing each problem found.
+     * Returns whether there were any. Holds the lock, so a writer can't
+     * make the objects seen half-way through a change look broken. */
+    public boolean fsck() {
+        return write(repo -> repo.fsck());
+    }
+
+    /** Prints the newest limit movements (all of them, if limit is
+     * negative) of branch name, or of HEAD, newest first. */
+    public void reflog(String name, int limit) {
+        read(repo -> {
+            repo.printReflog(name, limit);
+            return null;
+        });
+    }
+
+    /** Deletes the reflog entries older than days days (all of them, if
+     * days is 0). */
+    public void expireReflogs(int days) {
+        write(repo -> {
+            repo.expireReflogs(days);
+            return null;
+        });
+    }
+
+    /** Moves every loose ref into the packed-refs file. */
+    public void packRefs() {
+        write(repo -> {
+            repo.packRefs();
+            return null;
+        });
+    }
+
+    /** Runs command on the repo while holding its lock, then saves the
+     * repo (unless a batch is running). Returns what command returns. */
+    private <T> T write(Function<Repository, T> command) {
+        if (held != null) {
+            return command.apply(held);
+        }
+        Trace.phase("lock");
+        lock();
+        try {
+            Trace.phase("load");
+            Repository repo = load();
+            Trace.phase("run");
+            T result = command.apply(repo);
+            Trace.phase("save");
+            Repository.saveRepo(repo);
+            return result;
+        } finally {
+            RepoLock.releaseAll();
+        }
+    }
+
+    /** Runs command on the repo without locking or saving it. Returns
+     * what command returns. */
+    private <T> T read(Function<Repository, T> command) {
+        if (held != null) {
+            return command.apply(held);
+        }
+        // unless it'll build the commit index first (i.e. an older repo)
+        if (!CommitIndex.isBuilt(Repository.GITLET_DIR)) {
+            Trace.phase("lock");
+            lock();
+        }
+        try {
+            Trace.phase("load");
+            Repository repo = load();
+            Trace.phase("run");
+            return command.apply(repo);
+        } finally {
+            RepoLock.releaseAll();
+        }
+    }
+
+    /** Waits for any other writer, then takes the repo's lock. */
+    private static void lock() {
+        if (Repository.GITLET_DIR.isDirectory()) {
+            RepoLock.acquire(Repository.GITLET_DIR);
+        }
+    }
+
+    /** Releases the repo's lock, unless a batch is holding it. */
+    private void unlock() {
+        if (held == null) {
+            RepoLock.releaseAll();
+        }
+    }
+
+    /** Reads the repo, which prints to out. */
+    private Repository load() {
+        Repository repo = Repository.getRepo();
+        // if repo has not been initialized
+        if (repo == null) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        repo.setOutput(out);
+        return repo;
+    }
+
+    /** Returns the key of the working file at path. */
+    private static String keyOf(String path) {
+        return Repository.keyOf(join(Repository.PROJ_DIR, path));
+    }
+
+    /** Returns the error for a wrong number or type of operands. */
+    private static GitletException incorrectOps() {
+        return error("Incorrect operands.");
+    }
+}
@@ -0,0 +1,158 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Java Flight Recorder events, for profiling gitlet where it runs, e.g.
+ *     java -XX:StartFlightRecording=filename=gitlet.jfr gitlet.Main merge b
+ *     jfr print --categories Gitlet gitlet.jfr
+ * Each event times one piece of work on the object store, the commit
+ * graph or the working files. An event that isn't being recorded costs
+ * (almost) nothing: its fields are only filled in, and anything only
+ * they need only computed, once shouldCommit() says it will be kept.
+ * @author Cole Tahawi
+ */
+final class GitletEvents {
+
+    /** Not instantiable: a holder of the event classes. */
+    private GitletEvents() {
+    }
+
+    /** A commit or blob read from /.gitlet/ (a commit cache miss). */
+    @Name("gitlet.ObjectRead")
+    @Label("Object Read")
+    @Category("Gitlet")
+    @Description("A commit or blob deserialized from the object store")
+    @StackTrace(false)
+    static class ObjectRead extends Event {
+        @Label("Sha")
+        String sha;
+        @Label("Type")
+        String type;
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+        /** Returns the object of class c (a commit or blob, of the given
+         * type) read from f, whose sha is sha (see Utils.readObject). */
+        static <T extends Serializable> T read(File f, Class<T> c,
+                                               String sha, String type) {
+            ObjectRead e = new ObjectRead();
+            e.begin();
+            T obj = Utils.readObject(f, c);
+            if (e.shouldCommit()) {
+                e.sha = sha;
+                e.type = type;
+                e.bytes = f.length();
+                e.commit();
+            }
+            return obj;
+        }
+    }
+
+    /** A commit or blob written to /.gitlet/. */
+    @Name("gitlet.ObjectWrite")
+    @Label("Object Write")
+    @Category("Gitlet")
+    @Description("A commit or blob serialized into the object store")
+    @StackTrace(false)
+    static class ObjectWrite extends Event {
+        @Label("Sha")
+        String sha;
+        @Label("Type")
+        String type;
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+        /** Writes obj (a commit or blob, of the given type, whose sha is
+         * sha) to f (see Utils.writeObject). */
+        static void write(File f, Serializable obj, String sha,
+                          String type) {
+            ObjectWrite e = new ObjectWrite();
+            e.begin();
+            Utils.writeObject(f, obj);
+            if (e.shouldCommit()) {
+                e.sha = sha;
+                e.type = type;
+                e.bytes = f.length();
+                e.commit();
+            }
+        }
+    }
+
+    /** A walk of the commit graph between two commits. */
+    @Name("gitlet.GraphWalk")
+    @Label("Commit Graph Walk")
+    @Category("Gitlet")
+    @Description("A search of the commit graph, e.g. for a split point")
+    static class GraphWalk extends Event {
+        @Label("Kind")
+        String kind;
+        @Label("From")
+        String from;
+        @Label("To")
+        String to;
+        @Label("Result")
+        String result;
+    }
+
+    /** One phase of a merge (see Repository.merge). */
+    @Name("gitlet.MergePhase")
+    @Label("Merge Phase")
+    @Category("Gitlet")
+    @Description("One phase of merging a branch into the current one")
+    @StackTrace(false)
+    static class MergePhase extends Event {
+        @Label("Branch")
+        String branch;
+        @Label("Phase")
+        String phase;
+        @Label("Files")
+        int files;
+
+        /** Returns phase name of merging branch, begun. */
+        static MergePhase begin(String branch, String name) {
+            MergePhase e = new MergePhase();
+            e.branch = branch;
+            e.phase = name;
+            e.begin();
+            return e;
+        }
+
+        /** Ends this phase, which dealt with n files. */
+        void end(int n) {
+            if (shouldCommit()) {
+                files = n;
+                commit();
+            }
+        }
+
+        /** Ends this phase, which dealt with n files, and returns the
+         * next one (named name), begun. */
+        MergePhase next(String name, int n) {
+            end(n);
+            return begin(branch, name);
+        }
+    }
+
+    /** A scan of the working files. */
+    @Name("gitlet.TreeScan")
+    @Label("Working Tree Scan")
+    @Category("Gitlet")
+    @Description("A scan of the working files, e.g. for untracked files")
+    @StackTrace(false)
+    static class TreeScan extends Event {
+        @Label("Kind")
+        String kind;
+        @Label("Files Found")
+        int files;
+    }
+}
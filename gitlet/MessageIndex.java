@@ -0,0 +1,441 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import static gitlet.Utils.*;
+
+/** Inverted index over commit message tokens, kept in a grep/ directory
+ * with the rest of a generation of the CommitIndex (see CommitIndex).
+ * Commits are identified by their position in the CommitIndex.
+ *
+ * New commits are appended to a small "pending" log, one line per
+ * commit ("pos token token ...\n"). Once the log grows past MAX_PENDING
+ * bytes, it is written out as a new segment, made of:
+ *   terms    - every distinct token in sorted order, each stored as
+ *              its length (2 bytes), its UTF-8 bytes, then the start (4)
+ *              and length (4) of its postings, counted in ints.
+ *   offsets  - the offset of each term in terms (8 bytes each), so
+ *              terms can be binary searched.
+ *   postings - ascending commit positions (4 bytes each) per term.
+ * Then, like the digits of a binary counter, the newest two segments are
+ * merged into one for as long as the newer one has at least as many
+ * postings as the older, so there are only about log2(commits) segments,
+ * and each posting is rewritten only about as many times.
+ * Queries binary search each segment and scan only the (short) pending
+ * log, so they never touch the commits themselves.
+ * Segments are numbered, and never changed once written. The "segment"
+ * file lists the current ones, oldest first; a merge writes its new
+ * segments, then switches that file over to them atomically, so a query
+ * running alongside never sees half of one set and half of another.
+ * Segments it replaced are only deleted by the merge after, in case a
+ * query is still reading them.
+ * @author Cole Tahawi
+ */
+class MessageIndex {
+    /** Bytes of pending log allowed before it becomes a segment. */
+    private static final int MAX_PENDING = 1 << 16;
+    /** Tokens are truncated to this many characters. */
+    private static final int MAX_TOKEN = 255;
+    /** The files making up a segment. */
+    private static final String[] PARTS = {"terms", "offsets", "postings"};
+
+    /** One segment's files, mapped. */
+    private class Segment {
+        final ByteBuffer terms;
+        final ByteBuffer offsets;
+        final ByteBuffer postings;
+        final int numTerms;
+
+        /** Segment number n. */
+        Segment(int n) {
+            terms = CommitIndex.map(segmentPart("terms", n));
+            offsets = CommitIndex.map(segmentPart("offsets", n));
+            postings = CommitIndex.map(segmentPart("postings", n));
+            numTerms = offsets.capacity() / 8;
+        }
+
+        /** Returns term i. */
+        String term(int i) {
+            return termAt(terms, offsets.getLong(i * 8));
+        }
+
+        /** Returns where term i's postings start, and how many it has. */
+        int[] postingsOf(int i) {
+            int offset = (int) offsets.getLong(i * 8);
+            int end = offset + 2 + terms.getShort(offset);
+            return new int[] {terms.getInt(end), terms.getInt(end + 4)};
+        }
+    }
+
+    /** The index's directory and its files. */
+    private final File dir;
+    private final File pendingFile;
+    private final File segmentFile;
+
+    /** The message index in the given directory. */
+    MessageIndex(File grepDir) {
+        dir = grepDir;
+        pendingFile = join(dir, "pending");
+        segmentFile = join(dir, "segment");
+    }
+
+    /** Returns the numbers of the current segments, oldest first. */
+    private List<Integer> segments() {
+        List<Integer> result = new ArrayList<>();
+        if (segmentFile.exists()) {
+            for (String n : readContentsAsString(segmentFile).trim()
+                    .split(" ")) {
+                if (!n.isEmpty()) {
+                    result.add(Integer.parseInt(n));
+                }
+            }
+        } else if (segmentPart("offsets", 0).exists()) {
+            result.add(0);
+        }
+        return result;
+    }
+
+    /** Returns the file holding the given part ("terms", "offsets" or
+     * "postings") of segment n. */
+    private File segmentPart(String part, int n) {
+        // (segment 0 is what indices written before numbering had)
+        return n == 0 ? join(dir, part) : join(dir, part + "." + n);
+    }
+
+    /** Splits a message into its lower-case alphanumeric tokens. */
+    static List<String> tokenize(String m) {
+        List<String> tokens = new ArrayList<>();
+        for (String t : m.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!t.isEmpty()) {
+                tokens.add(t.length() > MAX_TOKEN
+                        ? t.substring(0, MAX_TOKEN) : t);
+            }
+        }
+        return tokens;
+    }
+
+    /** Records the tokens of message m for the commit at position pos. */
+    void add(int pos, String m) {
+        dir.mkdirs();
+        StringBuilder line = new StringBuilder().append(pos);
+        for (String t : tokenize(m)) {
+            line.append(' ').append(t);
+        }
+        line.append('\n');
+        appendTo(pendingFile,
+                line.toString().getBytes(StandardCharsets.UTF_8));
+        // merge once the pending log is large enough to slow down queries
+        if (pendingFile.length() > MAX_PENDING) {
+            merge();
+        }
+    }
+
+    /** Deletes every file of this index, and its directory. */
+    void clear() {
+        List<String> names = plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                join(dir, name).delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /** Returns the positions of commits whose messages contain every term.
+     * A term is split into tokens just as messages are (so "fix-bug"
+     * needs both "fix" and "bug"), and a term ending in '*' matches any
+     * token starting with the rest of its last token (a lone '*' matches
+     * any token). A term with no tokens is ignored.
+     * numCommits is the size of the commit index. */
+    BitSet search(List<String> terms, int numCommits) {
+        // read the log before the segments: a merge can only move its
+        // lines into newer segments, never drop them
+        List<String[]> pending = pendingLines();
+        List<Segment> segments = new ArrayList<>();
+        for (int n : segments()) {
+            segments.add(new Segment(n));
+        }
+        BitSet result = null;
+        for (String term : terms) {
+            boolean prefix = term.endsWith("*");
+            if (prefix) {
+                term = term.substring(0, term.length() - 1);
+            }
+            List<String> tokens = tokenize(term);
+            // the star only applies if the token runs right up to it
+            boolean lastPrefix = prefix && (tokens.isEmpty()
+                    || term.matches("(?s).*[\\p{L}\\p{N}]"));
+            if (prefix && tokens.isEmpty()) {
+                tokens.add("");
+            }
+            for (int i = 0; i < tokens.size(); i += 1) {
+                BitSet matches = new BitSet(numCommits);
+                boolean p = lastPrefix && i == tokens.size() - 1;
+                for (Segment seg : segments) {
+                    searchSegment(seg, tokens.get(i), p, matches);
+                }
+                searchPending(pending, tokens.get(i), p, matches);
+                if (result == null) {
+                    result = matches;
+                } else {
+                    result.and(matches);
+                }
+            }
+        }
+        return result == null ? new BitSet() : result;
+    }
+
+    /** Sets the positions of seg's commits containing term (or a token
+     * starting with term, if prefix) in matches. */
+    private static void searchSegment(Segment seg, String term,
+                                      boolean prefix, BitSet matches) {
+        // binary search for the first term >= term
+        int lo = 0;
+        int hi = seg.numTerms;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (seg.term(mid).compareTo(term) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        // take every matching term from there
+        for (int i = lo; i < seg.numTerms; i += 1) {
+            String t = seg.term(i);
+            if (!(prefix ? t.startsWith(term) : t.equals(term))) {
+                break;
+            }
+            int[] range = seg.postingsOf(i);
+            for (int j = range[0]; j < range[0] + range[1]; j += 1) {
+                matches.set(seg.postings.getInt(j * 4));
+            }
+        }
+    }
+
+    /** Sets the positions of pending commits containing term (or a token
+     * starting with term, if prefix) in matches. */
+    private static void searchPending(List<String[]> pending, String term,
+                                      boolean prefix, BitSet matches) {
+        for (String[] tokens : pending) {
+            for (int i = 1; i < tokens.length; i += 1) {
+                if (prefix ? tokens[i].startsWith(term)
+                        : tokens[i].equals(term)) {
+                    matches.set(Integer.parseInt(tokens[0]));
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Writes the pending log out as a new segment, merges segments as
+     * described above, switches to the result, then empties the log. */
+    private void merge() {
+        // collect pending postings by term
+        TreeMap<String, List<Integer>> pending = new TreeMap<>();
+        for (String[] tokens : pendingLines()) {
+            int pos = Integer.parseInt(tokens[0]);
+            for (int i = 1; i < tokens.length; i += 1) {
+                List<Integer> list = pending.computeIfAbsent(tokens[i],
+                        k -> new ArrayList<>());
+                // skip repeats of a token within one message
+                if (list.isEmpty() || list.get(list.size() - 1) != pos) {
+                    list.add(pos);
+                }
+            }
+        }
+        List<Integer> old = segments();
+        List<Integer> current = new ArrayList<>(old);
+        int next = nextNumber(old);
+        write(cursor(new TreeMap<>()), cursor(pending), next);
+        current.add(next);
+        while (current.size() > 1
+                && postingsSize(current.get(current.size() - 2))
+                   <= postingsSize(current.get(current.size() - 1))) {
+            int newer = current.remove(current.size() - 1);
+            int older = current.remove(current.size() - 1);
+            next += 1;
+            write(cursor(new Segment(older)), cursor(new Segment(newer)),
+                    next);
+            current.add(next);
+        }
+        // switch to the new segments, then drop the merged log
+        StringBuilder list = new StringBuilder();
+        for (int n : current) {
+            list.append(n).append(' ');
+        }
+        writeAtomically(segmentFile, list.toString().trim()
+                .getBytes(StandardCharsets.UTF_8));
+        pendingFile.delete();
+        // the segments just replaced are kept for any query that's
+        // still reading them; older ones (and merge leftovers) go
+        for (int n : allNumbers()) {
+            if (!current.contains(n) && !old.contains(n)) {
+                for (String part : PARTS) {
+                    segmentPart(part, n).delete();
+                }
+            }
+        }
+    }
+
+    /** Writes segment n, holding every term of older and newer, each
+     * with older's postings followed by newer's. */
+    private void write(TermCursor older, TermCursor newer, int n) {
+        try (DataOutputStream termsOut = open(segmentPart("terms", n));
+             DataOutputStream offsetsOut = open(segmentPart("offsets", n));
+             DataOutputStream postingsOut = open(segmentPart("postings", n))) {
+            int written = 0;
+            while (older.term() != null || newer.term() != null) {
+                String a = older.term();
+                String b = newer.term();
+                int cmp = a == null ? 1 : b == null ? -1 : a.compareTo(b);
+                String term = cmp <= 0 ? a : b;
+                int count = 0;
+                if (cmp <= 0) {
+                    count += older.writeAndAdvance(postingsOut);
+                }
+                if (cmp >= 0) {
+                    count += newer.writeAndAdvance(postingsOut);
+                }
+                offsetsOut.writeLong(termsOut.size());
+                byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+                termsOut.writeShort(bytes.length);
+                termsOut.write(bytes);
+                termsOut.writeInt(written);
+                termsOut.writeInt(count);
+                written += count;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Sorted terms with their postings, read one term at a time. */
+    private interface TermCursor {
+        /** Returns the current term, or null once past the last one. */
+        String term();
+
+        /** Writes the current term's postings to out, moves on to the
+         * next term, and returns the number of postings written. */
+        int writeAndAdvance(DataOutputStream out) throws IOException;
+    }
+
+    /** Returns a cursor over seg's terms. */
+    private static TermCursor cursor(Segment seg) {
+        return new TermCursor() {
+            private int i = 0;
+
+            @Override
+            public String term() {
+                return i < seg.numTerms ? seg.term(i) : null;
+            }
+
+            @Override
+            public int writeAndAdvance(DataOutputStream out)
+                    throws IOException {
+                int[] range = seg.postingsOf(i);
+                for (int j = range[0]; j < range[0] + range[1]; j += 1) {
+                    out.writeInt(seg.postings.getInt(j * 4));
+                }
+                i += 1;
+                return range[1];
+            }
+        };
+    }
+
+    /** Returns a cursor over the terms of log (postings by term). */
+    private static TermCursor cursor(TreeMap<String, List<Integer>> log) {
+        return new TermCursor() {
+            private Map.Entry<String, List<Integer>> e = log.pollFirstEntry();
+
+            @Override
+            public String term() {
+                return e == null ? null : e.getKey();
+            }
+
+            @Override
+            public int writeAndAdvance(DataOutputStream out)
+                    throws IOException {
+                for (int pos : e.getValue()) {
+                    out.writeInt(pos);
+                }
+                int count = e.getValue().size();
+                e = log.pollFirstEntry();
+                return count;
+            }
+        };
+    }
+
+    /** Returns the number of bytes of postings segment n has. */
+    private long postingsSize(int n) {
+        return segmentPart("postings", n).length();
+    }
+
+    /** Returns the numbers of every segment with files in dir. */
+    private List<Integer> allNumbers() {
+        List<Integer> result = new ArrayList<>();
+        List<String> names = plainFilenamesIn(dir);
+        for (String name : names == null ? List.<String>of() : names) {
+            if (name.startsWith("offsets.")) {
+                result.add(Integer.parseInt(name.substring(8)));
+            } else if (name.equals("offsets")) {
+                result.add(0);
+            }
+        }
+        return result;
+    }
+
+    /** Returns a number no segment has used (besides those in current,
+     * which is the number after every segment in dir). */
+    private int nextNumber(List<Integer> current) {
+        int max = 0;
+        for (int n : allNumbers()) {
+            max = Math.max(max, n);
+        }
+        for (int n : current) {
+            max = Math.max(max, n);
+        }
+        return max + 1;
+    }
+
+    /** Returns the lines of the pending log, each split into its
+     * position and tokens. */
+    private List<String[]> pendingLines() {
+        List<String[]> lines = new ArrayList<>();
+        if (!pendingFile.exists()) {
+            return lines;
+        }
+        for (String line : readContentsAsString(pendingFile).split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(line.split(" "));
+            }
+        }
+        return lines;
+    }
+
+    /** Returns the term stored at offset in terms. */
+    private static String termAt(ByteBuffer terms, long offset) {
+        int len = terms.getShort((int) offset);
+        byte[] bytes = new byte[len];
+        ByteBuffer t = terms.duplicate();
+        t.position((int) offset + 2);
+        t.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Opens a buffered stream that overwrites file f. */
+    private static DataOutputStream open(File f) throws IOException {
+        return new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(f)));
+    }
+}
@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.BiPredicate;
+import static gitlet.Utils.*;
+
+/** Copies object files (blobs or commits) between /.gitlet/ directories
+ * on several worker threads at once, so a slow file system (e.g. an NFS
+ * share holding a remote) always has several reads and writes in flight.
+ *
+ * The names of the objects to copy are handed to the workers through a
+ * bounded queue, so the caller never gets far ahead of them. Each worker
+ * reads an object, checks its bytes against its sha, and writes it
+ * atomically, so a partly copied object is never seen under its sha.
+ * The number of workers is read from GITLET_TRANSFER_WORKERS.
+ * @author Cole Tahawi
+ */
+class ObjectCopier {
+    /** Environment variable holding the number of workers to use. */
+    static final String WORKERS_VAR = "GITLET_TRANSFER_WORKERS";
+    /** Number of workers if WORKERS_VAR isn't set. */
+    private static final int DEFAULT_WORKERS = 8;
+    /** Names queued per worker before the caller has to wait. */
+    private static final int QUEUE_PER_WORKER = 4;
+    /** Tells a worker there's nothing left to copy. */
+    private static final String DONE = "";
+
+    /** Number of worker threads. */
+    private final int workers;
+
+    /** A copier using n workers. */
+    ObjectCopier(int n) {
+        workers = Math.max(1, n);
+    }
+
+    /** Returns a copier with the number of workers set in WORKERS_VAR
+     * (or DEFAULT_WORKERS, if it isn't a positive number). */
+    static ObjectCopier configured() {
+        String value = System.getenv(WORKERS_VAR);
+        int n = DEFAULT_WORKERS;
+        if (value != null) {
+            try {
+                n = Integer.parseInt(value.trim());
+            } catch (NumberFormatException excp) {
+                n = DEFAULT_WORKERS;
+            }
+        }
+        return new ObjectCopier(n > 0 ? n : DEFAULT_WORKERS);
+    }
+
+    /** Copies the object files named in shas from fromDir into toDir,
+     * checking each with verifier (given its bytes and sha) as it goes.
+     * If any object is corrupt or can't be copied, stops copying and
+     * throws a GitletException saying why; objects already copied are
+     * left in place. */
+    void copy(File fromDir, File toDir, Collection<String> shas,
+              BiPredicate<byte[], String> verifier) {
+        if (shas.isEmpty()) {
+            return;
+        }
+        toDir.mkdirs();
+        BlockingQueue<String> queue =
+            new ArrayBlockingQueue<>(QUEUE_PER_WORKER * workers);
+        String[] failure = new String[1];
+        List<Thread> threads = new ArrayList<>();
+        int n = Math.min(workers, shas.size());
+        for (int i = 0; i < n; i += 1) {
+            Thread t = new Thread(() -> {
+                while (true) {
+                    String sha = take(queue);
+                    if (sha.equals(DONE)) {
+                        return;
+                    }
+                    String problem;
+                    try {
+                        problem = copyOne(fromDir, toDir, sha, verifier);
+                    } catch (Throwable excp) {
+                        // keep taking names, or copy() could block
+                        // forever putting them in a full queue
+                        problem = "Could not copy object " + sha + ".";
+                    }
+                    if (problem != null) {
+                        synchronized (failure) {
+                            if (failure[0] == null) {
+                                failure[0] = problem;
+                            }
+                        }
+                    }
+                }
+            }, "gitlet-copier-" + i);
+            t.start();
+            threads.add(t);
+        }
+        try {
+            for (String sha : shas) {
+                synchronized (failure) {
+                    if (failure[0] != null) {
+                        break;
+                    }
+                }
+                queue.put(sha);
+            }
+            for (int i = 0; i < n; i += 1) {
+                queue.put(DONE);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (failure[0] != null) {
+            throw new GitletException(failure[0]);
+        }
+    }
+
+    /** Copies one object, returning why it couldn't be, or null. */
+    private static String copyOne(File fromDir, File toDir, String sha,
+                                  BiPredicate<byte[], String> verifier) {
+        File src = join(fromDir, sha);
+        File dst = join(toDir, sha);
+        try {
+            byte[] bytes = Files.readAllBytes(src.toPath());
+            if (!verifier.test(bytes, sha)) {
+                return "Object " + sha + " is corrupt.";
+            }
+            writeAtomically(dst, bytes);
+            return null;
+        } catch (IOException | IllegalArgumentException excp) {
+            return "Could not copy object " + sha + ".";
+        }
+    }
+
+    /** Takes the next name from queue, waiting for one if needed. */
+    private static String take(BlockingQueue<String> queue) {
+        while (true) {
+            try {
+                return queue.take();
+            } catch (InterruptedException excp) {
+                // keep waiting; the caller always sends DONE
+            }
+        }
+    }
+
+    /** Returns whether bytes is an object serialized with the given sha
+     * as its last String field, and sha is the SHA-1 of the same object
+     * serialized before that field was set (i.e. with it null). This is
+     * how blobs' and commits' shas are computed, and it's checked on the
+     * stored bytes, since deserializing and reserializing an object
+     * needn't give back the same bytes (e.g. a HashMap's capacity). */
+    static boolean hasSavedSha(byte[] bytes, String sha) {
+        if (sha.length() != UID_LENGTH) {
+            return false;
+        }
+        // the sha as written: TC_STRING, a 2-byte length, then its chars
+        byte[] field = new byte[3 + UID_LENGTH];
+        field[0] = 0x74;
+        field[1] = 0;
+        field[2] = UID_LENGTH;
+        System.arraycopy(sha.getBytes(StandardCharsets.US_ASCII), 0,
+                field, 3, UID_LENGTH);
+        int at = lastIndexOf(bytes, field);
+        if (at < 0) {
+            return false;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(bytes, 0, at);
+            // TC_NULL, where the field was when the sha was computed
+            md.update((byte) 0x70);
+            md.update(bytes, at + field.length,
+                    bytes.length - at - field.length);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : md.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString().equals(sha);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns where the last copy of pattern starts in bytes, or -1. */
+    private static int lastIndexOf(byte[] bytes, byte[] pattern) {
+        for (int i = bytes.length - pattern.length; i >= 0; i -= 1) {
+            int j = 0;
+            while (j < pattern.length && bytes[i + j] == pattern[j]) {
+                j += 1;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
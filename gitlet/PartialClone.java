@@ -0,0 +1,104 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static gitlet.Utils.*;
+
+/** What a clone made with --depth or --filter=blob:none left behind.
+ *
+ * A shallow clone lists, in /.gitlet/shallow, the commits whose parents
+ * weren't copied; walks of history just stop there.
+ * A blobless clone copies only the blobs of the commit it checks out,
+ * and records its origin's /.gitlet/ in /.gitlet/promisor. Any other
+ * blob is copied from the origin the first time it's read, and checkouts
+ * fetch every blob they're missing in one batch up front.
+ * @author Cole Tahawi
+ */
+class PartialClone {
+    /** Path of the origin's /.gitlet/, if blobs may be missing. */
+    static final File PROMISOR_FILE = join(Repository.GITLET_DIR, "promisor");
+    /** Shas of commits whose parents weren't copied, one per line. */
+    static final File SHALLOW_FILE = join(Repository.GITLET_DIR, "shallow");
+
+    /** The origin's /blobs/, or null if this isn't a blobless clone.
+     * Read from PROMISOR_FILE on first use. */
+    private static File originBlobs;
+    private static boolean loaded;
+
+    /** Records that missing blobs can be fetched from the repo whose
+     * /.gitlet/ is at originPath. */
+    static void setOrigin(String originPath) {
+        writeAtomically(PROMISOR_FILE,
+                originPath.getBytes(StandardCharsets.UTF_8));
+        loaded = false;
+    }
+
+    /** Returns whether blobs may be missing from /blobs/. */
+    static boolean isBlobless() {
+        if (!loaded) {
+            originBlobs = PROMISOR_FILE.isFile()
+                    ? join(readContentsAsString(PROMISOR_FILE), "blobs") : null;
+            loaded = true;
+        }
+        return originBlobs != null;
+    }
+
+    /** Copies the blob with the given sha from the origin,
+     * if this is a blobless clone and /blobs/ doesn't have it. */
+    static void fetch(String sha) {
+        if (isBlobless() && !join(Repository.BLOBS_DIR, sha).exists()) {
+            prefetch(List.of(sha));
+        }
+    }
+
+    /** Copies every blob in shas that /blobs/ doesn't have from the
+     * origin, in one pass. Does nothing unless this is a blobless clone. */
+    static void prefetch(Collection<String> shas) {
+        if (!isBlobless()) {
+            return;
+        }
+        List<String> wanted = new ArrayList<>();
+        for (String sha : new HashSet<>(shas)) {
+            if (!join(Repository.BLOBS_DIR, sha).exists()) {
+                wanted.add(sha);
+            }
+        }
+        if (wanted.isEmpty()) {
+            return;
+        }
+        if (!originBlobs.isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        ObjectCopier.configured().copy(originBlobs, Repository.BLOBS_DIR,
+                wanted, Blob::verify);
+    }
+
+    /** Records the commits whose parents weren't copied. */
+    static void setShallow(Collection<String> shas) {
+        StringBuilder lines = new StringBuilder();
+        for (String sha : shas) {
+            lines.append(sha).append('\n');
+        }
+        writeAtomically(SHALLOW_FILE,
+                lines.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the commits whose parents weren't copied (empty unless
+     * this is a shallow clone). */
+    static Set<String> getShallow() {
+        Set<String> shas = new HashSet<>();
+        if (SHALLOW_FILE.isFile()) {
+            for (String sha : readContentsAsString(SHALLOW_FILE).split("\n")) {
+                if (!sha.isEmpty()) {
+                    shas.add(sha);
+                }
+            }
+        }
+        return shas;
+    }
+}
@@ -0,0 +1,253 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import static gitlet.Utils.*;
+
+/** Per-commit Bloom filters of the paths each commit changed relative
+ * to its (first) parent, stored next to the CommitIndex so path-limited
+ * history can skip commits without deserializing them.
+ *
+ * Two files in /.gitlet/graph/ hold the filters:
+ *   path-offsets - one fixed-width record per CommitIndex position: the
+ *                  offset of that commit's filter (8 bytes) and its length
+ *                  in longs (4 bytes). A length of MAYBE means "assume
+ *                  this commit changed every path".
+ *   path-blooms  - the filters' bits, as longs.
+ * @author Cole Tahawi
+ */
+class PathFilters {
+    /** Length in bytes of a record in path-offsets. */
+    private static final int RECORD_SIZE = 8 + 4;
+    /** Filter length meaning no filter was stored. */
+    private static final int MAYBE = -1;
+    /** Commits changing more paths than this aren't given a filter. */
+    private static final int MAX_PATHS = 512;
+    /** Bits of filter per changed path. */
+    private static final int BITS_PER_PATH = 10;
+    /** Number of bits set per path. */
+    private static final int NUM_HASHES = 7;
+
+    /** /.gitlet/graph/path-offsets */
+    private final File offsetsFile;
+    /** /.gitlet/graph/path-blooms */
+    private final File bloomsFile;
+    /** Read-only views of both files, mapped on first read. */
+    private ByteBuffer offsets;
+    private ByteBuffer blooms;
+
+    /** The filters inside the given /.gitlet/graph/ directory. */
+    PathFilters(File graphDir) {
+        offsetsFile = join(graphDir, "path-offsets");
+        bloomsFile = join(graphDir, "path-blooms");
+    }
+
+    /** Deletes every filter. */
+    void clear() {
+        offsetsFile.delete();
+        bloomsFile.delete();
+        offsets = null;
+        blooms = null;
+    }
+
+    /** Adds the filter of commit c, at position pos in the index (after
+     * MAYBE records for any earlier positions that have none, e.g. if
+     * a command died before adding theirs). Its parent is read from
+     * commitsDir. Returns false, adding nothing, if there are already
+     * filters for pos or later positions, or a partly written one, so
+     * these filters can't be matched up with the index any more. */
+    boolean add(int pos, Commit c, File commitsDir) {
+        if (!padTo(pos)) {
+            return false;
+        }
+        Map<String, String> parentMap = new HashMap<>();
+        File parentFile = (c.getParent() == null) ? null
+                : join(commitsDir, c.getParent());
+        if (parentFile != null && parentFile.exists()) {
+            parentMap = readObject(parentFile, Commit.class).getBlobMap();
+        }
+        Set<String> changed = changedPaths(parentMap, c.getBlobMap());
+        // (a shallow repo may not have the parent to compare with)
+        if (changed.size() > MAX_PATHS
+                || (parentFile != null && !parentFile.exists())) {
+            appendFilter(null);
+        } else {
+            long[] bits = new long[Math.max(1,
+                    (changed.size() * BITS_PER_PATH + 63) / 64)];
+            for (String path : changed) {
+                setBits(bits, path);
+            }
+            ByteBuffer data = ByteBuffer.allocate(bits.length * 8);
+            for (long word : bits) {
+                data.putLong(word);
+            }
+            appendFilter(data.array());
+        }
+        return true;
+    }
+
+    /** Adds a copy of the filter of the commit at position fromPos in
+     * from (e.g. an older generation of the same filters), at position
+     * pos, as add does. */
+    boolean copy(int pos, PathFilters from, int fromPos) {
+        if (!padTo(pos)) {
+            return false;
+        }
+        copy(from, fromPos);
+        return true;
+    }
+
+    /** Appends a copy of the filter of the commit at position pos
+     * in from. */
+    private void copy(PathFilters from, int pos) {
+        if (!from.offsetsFile.exists()
+                || (long) (pos + 1) * RECORD_SIZE > from.offsets().capacity()) {
+            appendFilter(null);
+            return;
+        }
+        long start = from.offsets().getLong(pos * RECORD_SIZE);
+        int len = from.offsets().getInt(pos * RECORD_SIZE + 8);
+        if (len == MAYBE) {
+            appendFilter(null);
+            return;
+        }
+        byte[] data = new byte[len * 8];
+        from.blooms().get((int) (start * 8), data);
+        appendFilter(data);
+    }
+
+    /** Appends MAYBE records until the next record appended will be
+     * for position pos. Returns false if it's already past pos, or
+     * ends in a partly written record. */
+    private boolean padTo(int pos) {
+        long length = offsetsFile.length();
+        if (length % RECORD_SIZE != 0 || length > (long) pos * RECORD_SIZE) {
+            return false;
+        }
+        for (long n = length / RECORD_SIZE; n < pos; n += 1) {
+            appendFilter(null);
+        }
+        return true;
+    }
+
+    /** Appends the next commit's filter, made of the longs in data,
+     * or a MAYBE record if data is null. */
+    private void appendFilter(byte[] data) {
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_SIZE);
+        rec.putLong(bloomsFile.length() / 8);
+        if (data == null) {
+            rec.putInt(MAYBE);
+        } else {
+            appendTo(bloomsFile, data);
+            rec.putInt(data.length / 8);
+        }
+        appendTo(offsetsFile, rec.array());
+        offsets = null;
+        blooms = null;
+    }
+
+    /** Returns whether the commit at position pos may have changed path.
+     * False means it certainly didn't; true must be double-checked. */
+    boolean mayHaveChanged(int pos, String path) {
+        if (pos < 0 || !offsetsFile.exists()) {
+            return true;
+        }
+        ByteBuffer off = offsets();
+        if ((long) (pos + 1) * RECORD_SIZE > off.capacity()) {
+            // no filter recorded for this commit (or not when mapped)
+            return true;
+        }
+        long start = off.getLong(pos * RECORD_SIZE);
+        int len = off.getInt(pos * RECORD_SIZE + 8);
+        if (len == MAYBE) {
+            return true;
+        }
+        if ((start + len) * 8 > blooms().capacity()) {
+            // blooms was mapped before this filter was appended
+            blooms = null;
+        }
+        ByteBuffer data = blooms();
+        int[] hashes = hashes(path);
+        long numBits = (long) len * 64;
+        for (int i = 0; i < NUM_HASHES; i += 1) {
+            long bit = Integer.toUnsignedLong(hashes[0] + i * hashes[1])
+                    % numBits;
+            long word = data.getLong((int) ((start + bit / 64) * 8));
+            if ((word & (1L << (bit % 64))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the paths whose blobs differ between two blob maps. */
+    static Set<String> changedPaths(Map<String, String> before,
+                                    Map<String, String> after) {
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> e : after.entrySet()) {
+            if (!e.getValue().equals(before.get(e.getKey()))) {
+                changed.add(e.getKey());
+            }
+        }
+        for (String path : before.keySet()) {
+            if (!after.containsKey(path)) {
+                changed.add(path);
+            }
+        }
+        return changed;
+    }
+
+    /** Sets path's bits in the filter bits. */
+    private static void setBits(long[] bits, String path) {
+        int[] hashes = hashes(path);
+        long numBits = (long) bits.length * 64;
+        for (int i = 0; i < NUM_HASHES; i += 1) {
+            long bit = Integer.toUnsignedLong(hashes[0] + i * hashes[1])
+                    % numBits;
+            bits[(int) (bit / 64)] |= 1L << (bit % 64);
+        }
+    }
+
+    /** Returns two independent 32-bit hashes of path, used for double
+     * hashing (the i'th bit is h0 + i * h1). */
+    private static int[] hashes(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        // FNV-1a, and a murmur3-style finalizer over a second seed
+        int h0 = 0x811c9dc5;
+        int h1 = 0x9747b28c;
+        for (byte b : bytes) {
+            h0 = (h0 ^ (b & 0xff)) * 0x01000193;
+            h1 = Integer.rotateLeft(h1 ^ ((b & 0xff) * 0xcc9e2d51), 15)
+                    * 0x1b873593;
+        }
+        h1 ^= bytes.length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        // an odd step, so repeated steps don't collapse onto few bits
+        return new int[] {h0, h1 | 1};
+    }
+
+    /** Returns a read-only mapping of the offsets file. */
+    private ByteBuffer offsets() {
+        if (offsets == null) {
+            offsets = CommitIndex.map(offsetsFile);
+        }
+        return offsets;
+    }
+
+    /** Returns a read-only mapping of the blooms file
+     * (empty if no filters have been written). */
+    private ByteBuffer blooms() {
+        if (blooms == null) {
+            blooms = bloomsFile.exists() ? CommitIndex.map(bloomsFile)
+                    : ByteBuffer.allocate(0);
+        }
+        return blooms;
+    }
+}
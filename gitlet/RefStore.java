@@ -0,0 +1,313 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import static gitlet.Utils.*;
+
+/** The branches of a repo, i.e. which commit each name points to.
+ *
+ * Most branches live in one file, /.gitlet/packed-refs, which starts with
+ * a hash table of the branches' names and is followed by one line per
+ * branch, "[sha] [name]", sorted by name:
+ *   slots      - the number of slots in the table (a power of two, at
+ *                least twice the number of branches), 4 bytes.
+ *   table      - slots 4-byte offsets into the lines, plus 1 (0 marks an
+ *                empty slot). A name is found at its String.hashCode's
+ *                slot, or by probing the slots after it.
+ *   lines      - the branches, UTF-8 encoded.
+ * so a lookup reads one or two lines of the mapped file whatever the
+ * number of branches. Branches that are created or moved are written
+ * as loose refs instead, the serialized Branch files in /branches/ that
+ * every repo used to keep, which take the place of their packed entries.
+ * This keeps updating a busy branch cheap; pack() folds them back in.
+ * Every file is replaced atomically (see Utils.writeAtomically), and
+ * files in /branches/ whose names start with "." (e.g. an unfinished
+ * write's temporary file) are never taken for branches.
+ * @author Cole Tahawi
+ */
+class RefStore {
+    /** Name of the packed file inside /.gitlet/. */
+    static final String PACKED_FILE = "packed-refs";
+
+    /** /.gitlet/ of the repo these are the branches of. */
+    private final File gitletDir;
+    /** /.gitlet/branches/ */
+    private final File branchesDir;
+    /** /.gitlet/packed-refs */
+    private final File packedFile;
+    /** Read-only view of the packed file, mapped on first read. */
+    private ByteBuffer packed;
+
+    /** The branches of the repo in the given /.gitlet/ directory. */
+    RefStore(File gitletDir) {
+        this.gitletDir = gitletDir;
+        branchesDir = join(gitletDir, "branches");
+        packedFile = join(gitletDir, PACKED_FILE);
+    }
+
+    /** Returns the branches of this repo. */
+    static RefStore local() {
+        return new RefStore(Repository.GITLET_DIR);
+    }
+
+    /** Returns the sha of branch name's head commit,
+     * or null if there is no such branch. */
+    String get(String name) {
+        File loose = join(branchesDir, name);
+        if (isLoose(name) && loose.isFile()) {
+            return readObject(loose, Branch.class).getHeadCommit();
+        }
+        int line = findPacked(name);
+        return (line < 0) ? null : shaAt(packed(), line);
+    }
+
+    /** Returns whether branch name exists. */
+    boolean contains(String name) {
+        return (isLoose(name) && join(branchesDir, name).isFile())
+                || findPacked(name) >= 0;
+    }
+
+    /** Points branch name at the commit with the given sha, creating
+     * it if it doesn't exist yet, and records why in its Reflog (if it
+     * moved). Returns the sha it pointed to before (null if it was
+     * created). */
+    String set(String name, String sha, String reason) {
+        String old = get(name);
+        new Branch(name, sha, branchesDir);
+        if (!sha.equals(old)) {
+            new Reflog(gitletDir, name).append(old, sha, reason);
+        }
+        return old;
+    }
+
+    /** Deletes branch name, and its Reflog. Returns whether it existed. */
+    boolean delete(String name) {
+        new Reflog(gitletDir, name).delete();
+        boolean existed = isLoose(name) && join(branchesDir, name).delete();
+        if (findPacked(name) >= 0) {
+            Map<String, String> rest = readPacked();
+            rest.remove(name);
+            writePacked(rest);
+            existed = true;
+        }
+        return existed;
+    }
+
+    /** Returns the names of all branches, in order. */
+    List<String> names() {
+        return new ArrayList<>(heads().keySet());
+    }
+
+    /** Returns every branch's name (in order), mapped to the sha of its
+     * head commit. */
+    Map<String, String> heads() {
+        Map<String, String> heads = readPacked();
+        for (String name : looseNames()) {
+            heads.put(name, get(name));
+        }
+        return heads;
+    }
+
+    /** Moves every loose ref into the packed file.
+     * Returns how many there were. */
+    int pack() {
+        List<String> loose = looseNames();
+        if (loose.isEmpty()) {
+            return 0;
+        }
+        writePacked(heads());
+        for (String name : loose) {
+            join(branchesDir, name).delete();
+        }
+        removeEmptyDirs(branchesDir);
+        return loose.size();
+    }
+
+    /** Returns whether name can be a branch's: it's made of one or more
+     * parts separated by "/", none of them empty or starting with "."
+     * (so a branch is never taken for a temporary file, or a path
+     * outside /branches/), and has no spaces, control characters or
+     * backslashes (so it fits on its packed line). */
+    static boolean isValidName(String name) {
+        for (String part : name.split("/", -1)) {
+            if (part.isEmpty() || part.startsWith(".")) {
+                return false;
+            }
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c == '\\' || c == 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns whether name could be a loose ref's (i.e. no part of
+     * its path is hidden). */
+    private static boolean isLoose(String name) {
+        for (String part : name.split("/")) {
+            if (part.startsWith(".")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the names of the loose refs. */
+    private List<String> looseNames() {
+        List<String> names = new ArrayList<>();
+        addLooseNames(branchesDir, "", names);
+        return names;
+    }
+
+    /** Adds the names of the loose refs in dir (whose names start with
+     * prefix) to names. */
+    private static void addLooseNames(File dir, String prefix,
+                                      List<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(".")) {
+                continue;
+            }
+            if (f.isDirectory()) {
+                addLooseNames(f, prefix + name + "/", names);
+            } else {
+                names.add(prefix + name);
+            }
+        }
+    }
+
+    /** Deletes the empty directories inside dir (e.g. /branches/origin/
+     * once its refs are packed). */
+    private static void removeEmptyDirs(File dir) {
+        File[] files = dir.listFiles(File::isDirectory);
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            removeEmptyDirs(f);
+            // (only succeeds if it's empty)
+            f.delete();
+        }
+    }
+
+    /** Returns the offset of branch name's line in the packed file,
+     * or -1 if it isn't packed. */
+    private int findPacked(String name) {
+        ByteBuffer p = packed();
+        if (p == null) {
+            return -1;
+        }
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int slots = p.getInt(0);
+        int lines = 4 + 4 * slots;
+        for (int i = slotOf(name, slots); ; i = (i + 1) & (slots - 1)) {
+            int offset = p.getInt(4 + 4 * i);
+            if (offset == 0) {
+                return -1;
+            }
+            int line = lines + offset - 1;
+            if (nameAt(p, line, key)) {
+                return line;
+            }
+        }
+    }
+
+    /** Returns whether the packed line at offset line is named key. */
+    private static boolean nameAt(ByteBuffer p, int line, byte[] key) {
+        int start = line + UID_LENGTH + 1;
+        if (start + key.length >= p.capacity()
+                || p.get(start + key.length) != '\n') {
+            return false;
+        }
+        for (int i = 0; i < key.length; i += 1) {
+            if (p.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the sha on the packed line at offset line. */
+    private static String shaAt(ByteBuffer p, int line) {
+        byte[] sha = new byte[UID_LENGTH];
+        p.get(line, sha);
+        return new String(sha, StandardCharsets.US_ASCII);
+    }
+
+    /** Returns the slot of a name among slots (a power of two). */
+    private static int slotOf(String name, int slots) {
+        int h = name.hashCode();
+        return (h ^ (h >>> 16)) & (slots - 1);
+    }
+
+    /** Returns every packed branch's name (in order), mapped to the sha
+     * of its head commit. */
+    private Map<String, String> readPacked() {
+        Map<String, String> refs = new TreeMap<>();
+        ByteBuffer p = packed();
+        if (p == null) {
+            return refs;
+        }
+        int line = 4 + 4 * p.getInt(0);
+        while (line < p.capacity()) {
+            int end = line + UID_LENGTH + 1;
+            while (p.get(end) != '\n') {
+                end += 1;
+            }
+            byte[] name = new byte[end - line - UID_LENGTH - 1];
+            p.get(line + UID_LENGTH + 1, name);
+            refs.put(new String(name, StandardCharsets.UTF_8),
+                    shaAt(p, line));
+            line = end + 1;
+        }
+        return refs;
+    }
+
+    /** Replaces the packed file with one holding refs (K = name, V = sha,
+     * in order), or deletes it if refs is empty. */
+    private void writePacked(Map<String, String> refs) {
+        packed = null;
+        if (refs.isEmpty()) {
+            packedFile.delete();
+            return;
+        }
+        int slots = Integer.highestOneBit(Math.max(1, 2 * refs.size())) * 2;
+        ByteBuffer table = ByteBuffer.allocate(4 + 4 * slots);
+        table.putInt(0, slots);
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            int i = slotOf(ref.getKey(), slots);
+            while (table.getInt(4 + 4 * i) != 0) {
+                i = (i + 1) & (slots - 1);
+            }
+            table.putInt(4 + 4 * i, lines.size() + 1);
+            lines.writeBytes((ref.getValue() + " " + ref.getKey() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.writeBytes(table.array());
+        file.writeBytes(lines.toByteArray());
+        writeAtomically(packedFile, file.toByteArray());
+    }
+
+    /** Returns a read-only mapping of the packed file,
+     * or null if there isn't one. */
+    private ByteBuffer packed() {
+        if (packed == null && packedFile.isFile()) {
+            packed = CommitIndex.map(packedFile);
+        }
+        return packed;
+    }
+}
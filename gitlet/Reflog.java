@@ -0,0 +1,253 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static gitlet.Utils.*;
+
+/** The log of where one branch (or HEAD) has pointed, kept in
+ * /.gitlet/logs/, so commits a reset or merge moved a branch away from
+ * can still be found (and aren't deleted by gc, until their entries
+ * expire: see expire).
+ *
+ * A log is a text file with one line per movement, oldest first:
+ *     [old sha] [new sha] [time in ms] [reason]
+ * where the old sha is all zeros if the branch was just created.
+ * Branch [name]'s log is /logs/refs/[name]; HEAD's (every movement of
+ * the current branch, and every checkout) is /logs/HEAD. Lines are only
+ * ever appended, and are read back from the end of the file, a block at
+ * a time, so showing the newest entries doesn't read the whole log.
+ * @author Cole Tahawi
+ */
+class Reflog {
+    /** Name of the log of the current branch's movements. */
+    static final String HEAD = "HEAD";
+    /** Name of the logs' directory inside /.gitlet/. */
+    static final String LOGS_DIR = "logs";
+    /** Stands in for the old sha of a branch that was just created. */
+    private static final String NO_SHA = "0".repeat(UID_LENGTH);
+    /** Bytes read at a time, from the end of the log. */
+    private static final int BLOCK = 8192;
+    /** Entries older than this many days are expired by gc. */
+    static final int EXPIRE_DAYS = 90;
+    /** Milliseconds in a day. */
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    /** The log file. */
+    private final File file;
+
+    /** The log of the branch name (or HEAD) in the given /.gitlet/
+     * directory. */
+    Reflog(File gitletDir, String name) {
+        file = name.equals(HEAD) ? join(gitletDir, LOGS_DIR, HEAD)
+                : join(gitletDir, LOGS_DIR, "refs", name);
+    }
+
+    /** Returns the log of this repo's branch name (or HEAD). */
+    static Reflog local(String name) {
+        return new Reflog(Repository.GITLET_DIR, name);
+    }
+
+    /** One movement: from old (null if the branch was created) to sha,
+     * at time (in ms), for reason (e.g. "commit: [message]"). */
+    static class Entry {
+        private final String old;
+        private final String sha;
+        private final long time;
+        private final String reason;
+
+        /** The movement on the given log line. */
+        Entry(String line) {
+            String[] parts = line.split(" ", 4);
+            old = parts[0].equals(NO_SHA) ? null : parts[0];
+            sha = parts[1];
+            time = Long.parseLong(parts[2]);
+            reason = (parts.length < 4) ? "" : parts[3];
+        }
+
+        /** Returns the sha pointed to before, or null if none was. */
+        String getOld() {
+            return old;
+        }
+
+        /** Returns the sha pointed to after. */
+        String getSha() {
+            return sha;
+        }
+
+        /** Returns when the movement happened, in ms since the epoch. */
+        long getTime() {
+            return time;
+        }
+
+        /** Returns why the movement happened. */
+        String getReason() {
+            return reason;
+        }
+    }
+
+    /** Records a movement from old (null if none) to sha, for reason
+     * (even if old is sha, e.g. a checkout of a branch at the same
+     * commit). */
+    void append(String old, String sha, String reason) {
+        String line = ((old == null) ? NO_SHA : old) + " " + sha + " "
+                + System.currentTimeMillis() + " "
+                + reason.replace('\n', ' ') + "\n";
+        file.getParentFile().mkdirs();
+        // (one write, so concurrent appends can't interleave)
+        appendTo(file, line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the newest limit movements (all of them, if limit is
+     * negative), newest first. */
+    List<Entry> newest(int limit) {
+        List<Entry> entries = new ArrayList<>();
+        if (!file.isFile() || limit == 0) {
+            return entries;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long end = raf.length();
+            // bytes of a line whose start hasn't been read yet
+            ByteArrayOutputStream partial = new ByteArrayOutputStream();
+            byte[] block = new byte[BLOCK];
+            while (end > 0) {
+                int len = (int) Math.min(BLOCK, end);
+                raf.seek(end - len);
+                raf.readFully(block, 0, len);
+                int lineEnd = len;
+                for (int i = len - 1; i >= 0; i -= 1) {
+                    if (block[i] != '\n') {
+                        continue;
+                    }
+                    if (addLine(entries, block, i + 1, lineEnd, partial)
+                            && entries.size() == limit) {
+                        return entries;
+                    }
+                    lineEnd = i;
+                }
+                byte[] rest = partial.toByteArray();
+                partial.reset();
+                partial.write(block, 0, lineEnd);
+                partial.write(rest, 0, rest.length);
+                end -= len;
+            }
+            addLine(entries, block, 0, 0, partial);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return entries;
+    }
+
+    /** Adds the line made of block[from, to) followed by partial to
+     * entries, then empties partial. Returns whether there was a line. */
+    private static boolean addLine(List<Entry> entries, byte[] block,
+                                   int from, int to,
+                                   ByteArrayOutputStream partial) {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        line.write(block, from, to - from);
+        line.writeBytes(partial.toByteArray());
+        partial.reset();
+        if (line.size() == 0) {
+            return false;
+        }
+        entries.add(new Entry(line.toString(StandardCharsets.UTF_8)));
+        return true;
+    }
+
+    /** Deletes this log. */
+    void delete() {
+        file.delete();
+    }
+
+    /** Returns the cutoff (see expire) for entries older than days days,
+     * or for every entry if days is 0. */
+    static long cutoff(int days) {
+        return (days == 0) ? Long.MAX_VALUE
+                : System.currentTimeMillis() - days * DAY_MS;
+    }
+
+    /** Deletes the entries made before cutoff (in ms since the epoch).
+     * Returns how many there were. */
+    int expire(long cutoff) {
+        return expire(file, cutoff);
+    }
+
+    /** Deletes the entries made before cutoff from every log in the
+     * given /.gitlet/ directory, HEAD's included. Returns how many
+     * there were. */
+    static int expireAll(File gitletDir, long cutoff) {
+        int expired = 0;
+        for (File f : logFiles(join(gitletDir, LOGS_DIR))) {
+            expired += expire(f, cutoff);
+        }
+        return expired;
+    }
+
+    /** Deletes the entries made before cutoff from the log in file f,
+     * rewriting it atomically. Returns how many there were. */
+    private static int expire(File f, long cutoff) {
+        if (!f.isFile()) {
+            return 0;
+        }
+        StringBuilder kept = new StringBuilder();
+        int expired = 0;
+        for (String line : readContentsAsString(f).split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (new Entry(line).getTime() < cutoff) {
+                expired += 1;
+            } else {
+                kept.append(line).append('\n');
+            }
+        }
+        if (expired > 0) {
+            writeAtomically(f, kept.toString()
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return expired;
+    }
+
+    /** Returns every sha that a branch's log in the given /.gitlet/
+     * directory records, i.e. every commit a branch has been moved to.
+     * HEAD's log isn't counted: every commit it records is also in the
+     * log of the branch HEAD was on, so leaving it out just lets gc
+     * delete what only deleted branches (whose logs go with them) ever
+     * pointed to. Old shas aren't counted either: each is an earlier
+     * entry's new sha (or a head from before the log was started). */
+    static Set<String> allShas(File gitletDir) {
+        Set<String> shas = new HashSet<>();
+        for (File f : logFiles(join(gitletDir, LOGS_DIR, "refs"))) {
+            for (String line : readContentsAsString(f).split("\n")) {
+                if (!line.isEmpty()) {
+                    shas.add(new Entry(line).getSha());
+                }
+            }
+        }
+        return shas;
+    }
+
+    /** Returns the log files in dir and its subdirectories (skipping
+     * any temporary file left by an unfinished write). */
+    private static List<File> logFiles(File dir) {
+        List<File> logs = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return logs;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                logs.addAll(logFiles(f));
+            } else if (!f.getName().startsWith(".")) {
+                logs.add(f);
+            }
+        }
+        return logs;
+    }
+}
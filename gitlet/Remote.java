@@ -0,0 +1,244 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import static gitlet.Utils.*;
+
+/** A remote repo on this file system, given by the path of its /.gitlet/
+ * directory, and the copying of history between two repos.
+ *
+ * Copies are negotiated over the commit graph: starting from the tip
+ * being sent, parents are walked back (through the sender's CommitIndex)
+ * only until a commit the receiver already has, since a repo that has a
+ * commit has all of its history too. Only the commits found this way,
+ * and the blobs they use that the receiver lacks, are copied, so a sync
+ * costs time proportional to what's new rather than to all of history.
+ * @author Cole Tahawi
+ */
+class Remote {
+    /** Directory inside the receiving /.gitlet/ that commits are copied
+     * into before being moved into /commits/. */
+    private static final String TEMP_DIR = "transfer-tmp";
+    /** The remote's /.gitlet/ directory. */
+    private final File gitletDir;
+
+    /** The remote whose /.gitlet/ directory is at the given path. */
+    Remote(String path) {
+        gitletDir = new File(path);
+    }
+
+    /** Returns whether the remote's /.gitlet/ directory exists. */
+    boolean exists() {
+        return gitletDir.isDirectory();
+    }
+
+    /** Returns the remote's /.gitlet/ directory. */
+    File getGitletDir() {
+        return gitletDir;
+    }
+
+    /** Returns the sha of the remote branch's head commit,
+     * or null if the remote has no such branch. */
+    String getBranchHead(String brName) {
+        return new RefStore(gitletDir).get(brName);
+    }
+
+    /** Points the remote branch brName at the commit with the given sha,
+     * creating the branch if it doesn't exist yet. The commit must
+     * already be in the remote. */
+    void setBranchHead(String brName, String sha) {
+        new RefStore(gitletDir).set(brName, sha, "push");
+    }
+
+    /** Returns the name of the remote's current branch. */
+    String getCurrentBranch() {
+        return readObject(join(gitletDir, "repository"), Repository.class)
+                .getHeadName();
+    }
+
+    /** Returns the directory the remote's working files' keys are
+     * relative to (see Repository.getKeyRoot). */
+    String getKeyRoot() {
+        return keyRootOf(gitletDir);
+    }
+
+    /** Returns the key root of the repo in /.gitlet/ directory dir. */
+    static String keyRootOf(File dir) {
+        File rootFile = join(dir, "root");
+        return rootFile.isFile() ? readContentsAsString(rootFile)
+                : dir.getAbsoluteFile().getParent();
+    }
+
+    /** Returns whether key names a file inside key root root. */
+    static boolean isUnder(String key, String root) {
+        return key.startsWith(root + File.separator);
+    }
+
+    /** Throws a GitletException unless every file that commits track is
+     * inside key root root. Keys are absolute paths, and are part of
+     * what a commit's sha is computed over, so they can't be translated
+     * into another root without making different commits: two repos can
+     * only share history if they share a key root (e.g. a clone and its
+     * origin). */
+    static void checkKeys(Collection<Commit> commits, String root) {
+        for (Commit c : commits) {
+            for (String key : c.getBlobMap().keySet()) {
+                if (!isUnder(key, root)) {
+                    throw error("Commit " + c.getMySha() + " tracks files "
+                            + "outside this repository.");
+                }
+            }
+        }
+    }
+
+    /** Copies the commit with sha tip, and all of its history, from the
+     * repo in /.gitlet/ directory from to the one in to, skipping whatever
+     * to already has. Returns the number of commits copied. Copies
+     * nothing if a commit tracks files outside to's key root. */
+    static int copyHistory(File from, File to, String tip) {
+        File toCommits = join(to, "commits");
+        // get to's index first (an older repo's is built w/o new commits)
+        CommitIndex toIndex = CommitIndex.of(to);
+        CommitIndex fromIndex = CommitIndex.of(from);
+        /** 1. find the commits to is missing, parents before children */
+        List<String> missing = missingCommits(fromIndex, join(from, "commits"),
+            tip, sha -> join(toCommits, sha).exists());
+        /** 2. find the blobs those commits use that to is missing */
+        Map<String, Commit> commits = readCommits(from, missing);
+        checkKeys(commits.values(), keyRootOf(to));
+        Set<String> blobs = new LinkedHashSet<>();
+        for (Commit c : commits.values()) {
+            blobs.addAll(c.getBlobMap().values());
+        }
+        /** 3. copy them */
+        copyObjects(from, to, toIndex, blobs, commits);
+        return missing.size();
+    }
+
+    /** Reads the commits with the given shas from /.gitlet/ directory
+     * dir, keeping their order. */
+    static Map<String, Commit> readCommits(File dir, List<String> shas) {
+        Map<String, Commit> commits = new LinkedHashMap<>();
+        for (String sha : shas) {
+            commits.put(sha, readObject(join(dir, "commits", sha),
+                    Commit.class));
+        }
+        return commits;
+    }
+
+    /** Copies blobs, then commits (parents first), from /.gitlet/
+     * directory from to to, skipping blobs to already has. Objects are
+     * copied (and checked) concurrently; commits land in a temporary
+     * directory first, and are moved into place and added to toIndex in
+     * order, so to never has a commit whose blobs or parents it lacks. */
+    static void copyObjects(File from, File to, CommitIndex toIndex,
+                            Set<String> blobs, Map<String, Commit> commits) {
+        File toBlobs = join(to, "blobs");
+        List<String> wanted = new ArrayList<>();
+        for (String blobSha : blobs) {
+            if (!join(toBlobs, blobSha).exists()) {
+                wanted.add(blobSha);
+            }
+        }
+        if (from.getAbsoluteFile().equals(
+                Repository.GITLET_DIR.getAbsoluteFile())) {
+            // a blobless clone may have to fetch these itself first
+            PartialClone.prefetch(wanted);
+        }
+        ObjectCopier copier = ObjectCopier.configured();
+        copier.copy(join(from, "blobs"), toBlobs, wanted, Blob::verify);
+        File temp = join(to, TEMP_DIR);
+        copier.copy(join(from, "commits"), temp, commits.keySet(),
+                Commit::verify);
+        try {
+            for (Map.Entry<String, Commit> e : commits.entrySet()) {
+                Files.move(join(temp, e.getKey()).toPath(),
+                        join(to, "commits", e.getKey()).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                toIndex.append(e.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        temp.delete();
+    }
+
+    /** Returns the shas of tip and the commits within depth - 1 parents
+     * of it (as found in index), parents before children. */
+    static List<String> shallowCommits(CommitIndex index, File commitsDir,
+                                       String tip, int depth) {
+        Set<String> within = new HashSet<>();
+        List<String> generation = List.of(tip);
+        for (int d = 0; d < depth && !generation.isEmpty(); d += 1) {
+            List<String> next = new ArrayList<>();
+            for (String sha : generation) {
+                if (within.add(sha)) {
+                    for (String p : parentsOf(index, commitsDir, sha)) {
+                        if (p != null) {
+                            next.add(p);
+                        }
+                    }
+                }
+            }
+            generation = next;
+        }
+        return missingCommits(index, commitsDir, tip,
+            sha -> !within.contains(sha));
+    }
+
+    /** Returns the shas of tip and its history, as found in index (or
+     * commitsDir), leaving out every commit for which has is true and
+     * that commit's history. Parents come before their children. */
+    static List<String> missingCommits(CommitIndex index, File commitsDir,
+                                       String tip, Predicate<String> has) {
+        Set<String> missing = new LinkedHashSet<>();
+        Set<String> visited = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        if (!has.test(tip)) {
+            stack.push(tip);
+        }
+        while (!stack.isEmpty()) {
+            String sha = stack.peek();
+            if (visited.add(sha)) {
+                // first visit: come back to sha once its parents are done
+                for (String p : parentsOf(index, commitsDir, sha)) {
+                    // (a shallow repo may not have every parent)
+                    if (p != null && !visited.contains(p) && !has.test(p)
+                            && join(commitsDir, p).exists()) {
+                        stack.push(p);
+                    }
+                }
+            } else {
+                stack.pop();
+                missing.add(sha);
+            }
+        }
+        return new ArrayList<>(missing);
+    }
+
+    /** Returns the shas of the parents of the commit with the given sha
+     * (either may be null), from index if it has the commit. */
+    static String[] parentsOf(CommitIndex index, File commitsDir,
+                                      String sha) {
+        int pos = index.positionOf(sha);
+        if (pos >= 0) {
+            CommitIndex.Entry e = index.get(pos);
+            return new String[] {e.getParent(), e.getSecondParent()};
+        }
+        Commit c = readObject(join(commitsDir, sha), Commit.class);
+        return new String[] {c.getParent(), c.getSecondParent()};
+    }
+}
@@ -0,0 +1,221 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import static gitlet.Utils.*;
+
+/** Finds files that were renamed (or moved) between two versions of a
+ * blob map, by pairing paths that were removed with paths that were
+ * added.
+ *
+ * A blob's sha covers its path as well as its contents, so a renamed
+ * file never keeps its blob id. Pairs are instead found by:
+ *  1. exact contents, using a hash of each candidate's contents;
+ *  2. similar contents, estimated with MinHash signatures over the
+ *     files' sets of lines. Signatures are split into bands and only
+ *     files sharing a band are ever compared (locality-sensitive
+ *     hashing), so thousands of candidates don't cost O(n^2).
+ * @author Cole Tahawi
+ */
+class Renames {
+    /** Least estimated similarity (fraction of lines shared) for a pair
+     * of different files to count as a rename. */
+    static final double MIN_SIMILARITY = 0.5;
+    /** Number of hash functions in a MinHash signature. */
+    private static final int NUM_HASHES = 64;
+    /** Signature values per LSH band. */
+    private static final int BAND_ROWS = 2;
+    /** Bands shared by more files than this are too common to be useful. */
+    private static final int MAX_BUCKET = 64;
+
+    /** Seeds of the signature's hash functions. */
+    private static final int[] SEEDS = new int[NUM_HASHES];
+
+    static {
+        int seed = 0x2545F491;
+        for (int i = 0; i < NUM_HASHES; i += 1) {
+            seed = mix(seed + 0x9E3779B9);
+            SEEDS[i] = seed;
+        }
+    }
+
+    /** Returns the renames between before and after, two blob maps
+     * (K=path, V=blob sha), as a map from new path to old path.
+     * Only paths missing from one of the maps are considered. */
+    static Map<String, String> find(Map<String, String> before,
+                                    Map<String, String> after) {
+        return find(before, after,
+            path -> Blob.readBlob(before.get(path)).getContents(),
+            path -> Blob.readBlob(after.get(path)).getContents());
+    }
+
+    /** Like find(before, after), but candidates' contents are read
+     * through beforeText and afterText (given a path) rather than from
+     * /blobs/, e.g. for staged or working files. */
+    static Map<String, String> find(Map<String, String> before,
+                                    Map<String, String> after,
+                                    Function<String, String> beforeText,
+                                    Function<String, String> afterText) {
+        List<String> removed = new ArrayList<>();
+        List<String> added = new ArrayList<>();
+        for (String path : before.keySet()) {
+            if (!after.containsKey(path)) {
+                removed.add(path);
+            }
+        }
+        for (String path : after.keySet()) {
+            if (!before.containsKey(path)) {
+                added.add(path);
+            }
+        }
+        Map<String, String> renames = new HashMap<>();
+        if (removed.isEmpty() || added.isEmpty()) {
+            return renames;
+        }
+        Collections.sort(removed);
+        Collections.sort(added);
+        /** 1. exact contents */
+        Map<String, String> contents = new HashMap<>();
+        Map<String, String> removedByHash = new HashMap<>();
+        for (String path : removed) {
+            String text = beforeText.apply(path);
+            contents.put(path, text);
+            removedByHash.putIfAbsent(sha1(text), path);
+        }
+        List<String> unpairedAdded = new ArrayList<>();
+        for (String path : added) {
+            String text = afterText.apply(path);
+            String old = removedByHash.remove(sha1(text));
+            if (old != null) {
+                renames.put(path, old);
+            } else {
+                contents.put(path, text);
+                unpairedAdded.add(path);
+            }
+        }
+        Set<String> unpairedRemoved = new HashSet<>(removed);
+        unpairedRemoved.removeAll(renames.values());
+        if (unpairedRemoved.isEmpty() || unpairedAdded.isEmpty()) {
+            return renames;
+        }
+        /** 2. similar contents */
+        Map<String, int[]> signatures = new HashMap<>();
+        // bucket removed files by each band of their signatures
+        Map<Long, List<String>> buckets = new HashMap<>();
+        for (String path : removed) {
+            if (unpairedRemoved.contains(path)) {
+                int[] sig = signature(contents.get(path));
+                signatures.put(path, sig);
+                for (int band = 0; band < NUM_HASHES / BAND_ROWS; band += 1) {
+                    buckets.computeIfAbsent(bandKey(sig, band),
+                            k -> new ArrayList<>()).add(path);
+                }
+            }
+        }
+        // score each added file against the removed files sharing a band
+        List<Candidate> candidates = new ArrayList<>();
+        for (String path : unpairedAdded) {
+            int[] sig = signature(contents.get(path));
+            Set<String> seen = new HashSet<>();
+            for (int band = 0; band < NUM_HASHES / BAND_ROWS; band += 1) {
+                List<String> bucket = buckets.get(bandKey(sig, band));
+                if (bucket == null || bucket.size() > MAX_BUCKET) {
+                    continue;
+                }
+                for (String old : bucket) {
+                    if (seen.add(old)) {
+                        double sim = similarity(sig, signatures.get(old));
+                        if (sim >= MIN_SIMILARITY) {
+                            candidates.add(new Candidate(path, old, sim));
+                        }
+                    }
+                }
+            }
+        }
+        // take the most similar pairs first, each path at most once
+        candidates.sort((c0, c1) -> Double.compare(c1.similarity,
+                c0.similarity));
+        for (Candidate c : candidates) {
+            if (!renames.containsKey(c.newPath)
+                    && unpairedRemoved.remove(c.oldPath)) {
+                renames.put(c.newPath, c.oldPath);
+            }
+        }
+        return renames;
+    }
+
+    /** A possible rename, and how similar its two files are. */
+    private static class Candidate {
+        private final String newPath;
+        private final String oldPath;
+        private final double similarity;
+
+        Candidate(String n, String o, double sim) {
+            newPath = n;
+            oldPath = o;
+            similarity = sim;
+        }
+    }
+
+    /** Returns the MinHash signature of text's set of lines: for each
+     * of NUM_HASHES hash functions, the least hash of any line. */
+    static int[] signature(String text) {
+        int[] sig = new int[NUM_HASHES];
+        Arrays.fill(sig, Integer.MAX_VALUE);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = (end < 0) ? text.length() : end;
+            int h = 0;
+            for (int c = start; c < end; c += 1) {
+                h = 31 * h + text.charAt(c);
+            }
+            for (int i = 0; i < NUM_HASHES; i += 1) {
+                int v = mix(h ^ SEEDS[i]);
+                if (v < sig[i]) {
+                    sig[i] = v;
+                }
+            }
+            start = end + 1;
+        }
+        return sig;
+    }
+
+    /** Returns the estimated fraction of lines two files share:
+     * the fraction of their signatures' values that agree. */
+    static double similarity(int[] sig0, int[] sig1) {
+        int same = 0;
+        for (int i = 0; i < NUM_HASHES; i += 1) {
+            if (sig0[i] == sig1[i]) {
+                same += 1;
+            }
+        }
+        return (double) same / NUM_HASHES;
+    }
+
+    /** Returns the bucket key of one band of a signature. */
+    private static long bandKey(int[] sig, int band) {
+        long key = band;
+        for (int r = 0; r < BAND_ROWS; r += 1) {
+            key = key * 1000003 + sig[band * BAND_ROWS + r];
+        }
+        return key;
+    }
+
+    /** Scrambles the bits of h (the murmur3 finalizer). */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,295 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import static gitlet.Utils.*;
+
+/** Builds a synthetic repo, for load testing and benchmarks. Run in an
+ * empty directory, which becomes the repo's working directory:
+ *     java gitlet.RepoGenerator [option value]...
+ * Options (and their defaults):
+ *   --seed [n]          the random seed (1).
+ *   --files [n]         files in the first commit (1000).
+ *   --size [n]          mean size of a file, in bytes (2048).
+ *   --size-dist [name]  how file sizes vary about the mean: "fixed",
+ *                       "uniform" (from 0 to twice the mean) or "exp"
+ *                       (exponential, i.e. mostly small files and a
+ *                       few big ones) (exp).
+ *   --commits [n]       commits made after the first (1000).
+ *   --changes [n]       files each commit changes (5). About one change
+ *                       in ten adds a file, and one in ten deletes one.
+ *   --branches [n]      branches, all started at the first commit:
+ *                       master, b1, b2... (4).
+ *   --merge-every [n]   every nth commit on a branch merges another
+ *                       branch into it (10, 0 for never).
+ * Commits go round the branches, and are written straight through Blob
+ * and Commit (with the CommitIndex kept up to date), not through the
+ * commands, so big repos take seconds rather than hours. Everything is
+ * drawn from one Random, and commit i is dated i minutes after a fixed
+ * time, so the same options always give the same history, down to the
+ * shas (if run in a directory with the same path, in the same time
+ * zone). master is checked out at the end.
+ * @author Cole Tahawi
+ */
+public class RepoGenerator {
+    /** When the first commit was made, in ms since the epoch. */
+    private static final long START = 1577836800000L;
+    /** Time between commits, in ms. */
+    private static final long STEP = 60_000L;
+    /** Files per directory. */
+    private static final int DIR_SIZE = 100;
+    /** Words file contents are made of. */
+    private static final String[] WORDS = {"int", "return", "if", "else",
+        "for", "while", "new", "class", "static", "void", "String", "null",
+        "this", "final", "private", "public", "x", "i", "count", "name"};
+
+    /** Options, as described above. */
+    private long seed = 1;
+    private int files = 1000;
+    private int size = 2048;
+    private String sizeDist = "exp";
+    private int commits = 1000;
+    private int changes = 5;
+    private int branches = 4;
+    private int mergeEvery = 10;
+
+    /** Source of every choice made. */
+    private Random random;
+    /** Number of the next file added. */
+    private int nextFile;
+    /** Number of commits made so far. */
+    private int made;
+
+    public static void main(String... args) {
+        if (Repository.GITLET_DIR.exists()) {
+            System.out.println("Run the generator in an empty directory.");
+            return;
+        }
+        RepoGenerator gen = new RepoGenerator();
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length || !gen.setOption(args[i], args[i + 1])) {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+        }
+        gen.generate();
+    }
+
+    /** Sets option name to value. Returns whether that's a valid option
+     * and value. */
+    private boolean setOption(String name, String value) {
+        try {
+            switch (name) {
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    return true;
+                case "--size-dist":
+                    sizeDist = value;
+                    return value.equals("fixed") || value.equals("uniform")
+                            || value.equals("exp");
+                default:
+                    break;
+            }
+            int n = Integer.parseInt(value);
+            switch (name) {
+                case "--files":
+                    files = n;
+                    return n >= 1;
+                case "--size":
+                    size = n;
+                    return n >= 0;
+                case "--commits":
+                    commits = n;
+                    return n >= 0;
+                case "--changes":
+                    changes = n;
+                    return n >= 1;
+                case "--branches":
+                    branches = n;
+                    return n >= 1;
+                case "--merge-every":
+                    mergeEvery = n;
+                    return n >= 0;
+                default:
+                    return false;
+            }
+        } catch (NumberFormatException excp) {
+            return false;
+        }
+    }
+
+    /** Builds the repo, as the options describe. */
+    void generate() {
+        random = new Random(seed);
+        Repository repo = Repository.initRepository();
+        RepoLock.acquire(Repository.GITLET_DIR);
+        try {
+            String root = repo.getHeadSha();
+            /** the first commit, shared by every branch */
+            HashMap<String, String> blobs = new HashMap<>();
+            for (int i = 0; i < files; i += 1) {
+                addFile(blobs);
+            }
+            String first = commit("add " + files + " files", root, null,
+                    blobs);
+            List<String> names = new ArrayList<>();
+            names.add("master");
+            for (int i = 1; i < branches; i += 1) {
+                names.add("b" + i);
+            }
+            // K = branch name, V = sha of its head commit
+            Map<String, String> heads = new TreeMap<>();
+            for (String name : names) {
+                heads.put(name, first);
+            }
+            /** history */
+            for (int i = 0; i < commits; i += 1) {
+                String name = names.get(i % branches);
+                int onBranch = i / branches + 1;
+                String parent = heads.get(name);
+                if (branches > 1 && mergeEvery > 0
+                        && onBranch % mergeEvery == 0) {
+                    String from = names.get((i % branches + 1
+                            + random.nextInt(branches - 1)) % branches);
+                    heads.put(name, merge(name, from, parent,
+                            heads.get(from)));
+                } else {
+                    heads.put(name, change(name, onBranch, parent));
+                }
+            }
+            for (Map.Entry<String, String> head : heads.entrySet()) {
+                RefStore.local().set(head.getKey(), head.getValue(),
+                        "generate: seed " + seed);
+            }
+            Commit.readCommit(heads.get("master")).writeToProject();
+            Repository.saveRepo(repo);
+            System.out.println("Generated " + (made + 1) + " commits on "
+                    + branches + " branches.");
+        } finally {
+            RepoLock.releaseAll();
+        }
+    }
+
+    /** Makes a commit on branch name (its nth) after parent, changing
+     * files in it. Returns its sha. */
+    private String change(String name, int n, String parent) {
+        HashMap<String, String> blobs =
+            new HashMap<>(Commit.readCommit(parent).getBlobMap());
+        // paths given new contents (only saved once all are chosen, so
+        // a file changed twice leaves no blob behind)
+        Set<String> changed = new TreeSet<>();
+        for (int i = 0; i < changes; i += 1) {
+            int kind = random.nextInt(10);
+            if (kind == 0 || blobs.isEmpty()) {
+                String path = newPath();
+                blobs.put(path, null);
+                changed.add(path);
+            } else if (kind == 1 && blobs.size() > 1) {
+                String path = pick(blobs);
+                blobs.remove(path);
+                changed.remove(path);
+            } else {
+                changed.add(pick(blobs));
+            }
+        }
+        for (String path : changed) {
+            blobs.put(path, saveBlob(path));
+        }
+        return commit(name + " change " + n, parent, null, blobs);
+    }
+
+    /** Makes a commit on branch name, after parent, merging in branch
+     * from, whose head is other. Takes each file either side changed
+     * from one side or the other, at random. Returns its sha. */
+    private String merge(String name, String from, String parent,
+                         String other) {
+        HashMap<String, String> blobs =
+            new HashMap<>(Commit.readCommit(parent).getBlobMap());
+        Map<String, String> theirs =
+            new TreeMap<>(Commit.readCommit(other).getBlobMap());
+        for (Map.Entry<String, String> e : theirs.entrySet()) {
+            String ours = blobs.get(e.getKey());
+            if (ours == null || (!ours.equals(e.getValue())
+                    && random.nextBoolean())) {
+                blobs.put(e.getKey(), e.getValue());
+            }
+        }
+        return commit("Merged " + from + " into " + name + ".", parent,
+                other, blobs);
+    }
+
+    /** Saves a commit of blobs, with the given parents. Returns its sha. */
+    private String commit(String m, String parent, String secondParent,
+                          HashMap<String, String> blobs) {
+        made += 1;
+        Date when = new Date(START + made * STEP);
+        return new Commit(m, parent, secondParent, blobs, when).getMySha();
+    }
+
+    /** Adds a new file to blobs. */
+    private void addFile(HashMap<String, String> blobs) {
+        String path = newPath();
+        blobs.put(path, saveBlob(path));
+    }
+
+    /** Returns the path (key) of a file that was never added before. */
+    private String newPath() {
+        int n = nextFile;
+        nextFile += 1;
+        return Repository.keyOf(join(Repository.PROJ_DIR, "src",
+                "d" + (n / DIR_SIZE), "f" + n + ".txt"));
+    }
+
+    /** Returns one of blobs' paths, at random. */
+    private String pick(HashMap<String, String> blobs) {
+        // (sorted, since a HashMap's order isn't part of the seed)
+        List<String> paths = new ArrayList<>(new TreeMap<>(blobs).keySet());
+        return paths.get(random.nextInt(paths.size()));
+    }
+
+    /** Saves a blob of new contents for the file at path.
+     * Returns its sha. */
+    private String saveBlob(String path) {
+        Blob b = new Blob(path, contents(fileSize()));
+        b.saveBlob();
+        return b.getSha();
+    }
+
+    /** Returns the size of a new file's contents, in bytes. */
+    private int fileSize() {
+        switch (sizeDist) {
+            case "fixed":
+                return size;
+            case "uniform":
+                return random.nextInt(2 * size + 1);
+            default:
+                return (int) Math.min(Integer.MAX_VALUE / 2,
+                        -size * Math.log(1 - random.nextDouble()));
+        }
+    }
+
+    /** Returns about len bytes of text: lines of random words. */
+    private String contents(int len) {
+        StringBuilder text = new StringBuilder(len + 16);
+        int line = 0;
+        while (text.length() < len) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            text.append(word);
+            line += word.length() + 1;
+            if (line > 60 || random.nextInt(8) == 0) {
+                text.append('\n');
+                line = 0;
+            } else {
+                text.append(' ');
+            }
+        }
+        return text.toString();
+    }
+}
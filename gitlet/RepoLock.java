@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import static gitlet.Utils.*;
+
+/** Lets only one process at a time change a repo.
+ *
+ * Every command that writes to a /.gitlet/ directory first takes an OS
+ * file lock on its "lock" file, waiting up to TIMEOUT_MS for another
+ * writer to finish. The OS drops the lock if its process dies, so a
+ * crashed command never leaves a stale lock behind; locks are also
+ * released when the command ends (see Main.execute), or by a shutdown
+ * hook if the process exits first.
+ * Commands that only read don't lock: every file a writer replaces is
+ * replaced atomically (see Utils.writeObject), and the index files are
+ * append-only or switched over atomically, so readers always see a
+ * consistent repo.
+ * @author Cole Tahawi
+ */
+class RepoLock {
+    /** Name of the lock file inside /.gitlet/. */
+    static final String LOCK_FILE = "lock";
+    /** How long to wait for another writer. */
+    private static final long TIMEOUT_MS = 10000;
+    /** How long to sleep between tries. */
+    private static final long RETRY_MS = 20;
+
+    /** Locks held by this process, released when it exits. */
+    private static final List<RepoLock> HELD = new ArrayList<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(RepoLock::releaseAll));
+    }
+
+    /** The lock file. */
+    private final File file;
+    /** Its open channel and lock, while held. */
+    private FileChannel channel;
+    private FileLock lock;
+
+    /** The lock of the repo in the given /.gitlet/ directory. */
+    private RepoLock(File gitletDir) {
+        file = join(gitletDir, LOCK_FILE);
+    }
+
+    /** Takes the lock of the repo in the given /.gitlet/ directory,
+     * holding it until releaseAll is called. If another process holds it
+     * for longer than TIMEOUT_MS, throws a GitletException. */
+    static void acquire(File gitletDir) {
+        RepoLock l = new RepoLock(gitletDir);
+        synchronized (HELD) {
+            for (RepoLock held : HELD) {
+                if (held.file.getAbsoluteFile().equals(
+                        l.file.getAbsoluteFile())) {
+                    return; // already ours
+                }
+            }
+        }
+        if (!l.tryFor(TIMEOUT_MS)) {
+            throw error("Another gitlet process is using "
+                    + "this repository.");
+        }
+        synchronized (HELD) {
+            HELD.add(l);
+        }
+    }
+
+    /** Releases every lock this process holds. */
+    static void releaseAll() {
+        synchronized (HELD) {
+            for (RepoLock l : HELD) {
+                l.release();
+            }
+            HELD.clear();
+        }
+    }
+
+    /** Tries to take the lock for up to timeout ms.
+     * Returns whether it was taken. */
+    private boolean tryFor(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            while (true) {
+                try {
+                    lock = channel.tryLock();
+                } catch (OverlappingFileLockException excp) {
+                    lock = null; // held by another thread of this process
+                }
+                if (lock != null) {
+                    return true;
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    channel.close();
+                    return false;
+                }
+                Thread.sleep(RETRY_MS);
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Releases this lock, if held. */
+    private void release() {
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException excp) {
+            // closing the channel releases the lock anyway
+        }
+        lock = null;
+        channel = null;
+    }
+}
@@ -4,7 +4,9 @@ import java.io.File;
 import static gitlet.Utils.*;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /** Represents a gitlet repository.
@@ -13,6 +15,9 @@ import java.util.*;
  *  @author Cole Tahawi
  */
 public class Repository implements Serializable {
+    /** Fixed, so that changing this class's methods (or adding fields)
+     * doesn't make existing repos unreadable. */
+    private static final long serialVersionUID = 1106521083751575616L;
     /** The current working directory. */
     public static final File PROJ_DIR = new File(System.getProperty("user.dir"));
     /** The .gitlet directory. */
@@ -23,18 +28,23 @@ public class Repository implements Serializable {
     public static final File STAGED_DIR = join(GITLET_DIR, "staged");
     public static final File BRANCHES_DIR = join(GITLET_DIR, "branches");
     public static final File REPO_FILE = join(GITLET_DIR, "repository");
+    /** Holds the directory working files' keys are under, if not PROJ_DIR. */
+    public static final File ROOT_FILE = join(GITLET_DIR, "root");
     private static final String MASTER_BRANCH = "master";
+    /** Name a clone gives the remote it was cloned from. */
+    private static final String ORIGIN = "origin";
+    /** Cached contents of ROOT_FILE (or PROJ_DIR's path). */
+    private static String keyRoot;
     /** Instance variables: */
     private String head; // String name of working branch
-    /** access all branches' pointers.
-     * Key = name, Value = shaVal of branch object */
-    private ArrayDeque<String> branches;
     /** K = abs path of working file, V = sha val of a staged blob. */
     private HashMap<String, String> stagedFiles;
     /** list of files staged for deletion, by their abs. paths. */
     private ArrayDeque<String> doomedFiles; // (ALL CAPS)
    /** Stores remote name, remote path */
     private HashMap<String, String> remotes;
+    /** Where commands print to (System.out, if not set). Not saved. */
+    private transient PrintStream out;
     /** Should only create a new repo object
      * ONLY IF one doesn't exist already. */
     public Repository() {
@@ -42,17 +52,138 @@ public class Repository implements Serializable {
         stagedFiles = new HashMap<>();
         remotes = new HashMap<>();
         doomedFiles = new ArrayDeque<>();
-        branches = new ArrayDeque<>();
         // setup file structure
         setupPersistence();
         // get + save initial commit (accessed via no-arg constructor)
         Commit initCommit = new Commit();
-        // get + save head branch
-        Branch masterBranch = new Branch(MASTER_BRANCH, initCommit.getMySha());
-        // add head branch to branch map
-        branches.addLast(MASTER_BRANCH);
         // make MASTER_BRANCH working/head branch
         head = MASTER_BRANCH;
+        // save head branch, pointing at the initial commit
+        moveHead(initCommit.getMySha(), "commit (initial): "
+                + initCommit.getMessage());
+    }
+
+    /** Returns the directory that working files' keys (the absolute paths
+     * used in blob maps, staging, etc.) are relative to. This is PROJ_DIR,
+     * except in a clone, which keeps its origin's root so the commits they
+     * share name the same files. */
+    static String getKeyRoot() {
+        if (keyRoot == null) {
+            keyRoot = ROOT_FILE.isFile() ? readContentsAsString(ROOT_FILE)
+                    : PROJ_DIR.getAbsolutePath();
+        }
+        return keyRoot;
+    }
+
+    /** Returns the key of working file f (which is inside PROJ_DIR). */
+    public static String keyOf(File f) {
+        String path = f.getAbsolutePath();
+        return getKeyRoot()
+                + path.substring(PROJ_DIR.getAbsolutePath().length());
+    }
+
+    /** Returns the working file with the given key. Throws a
+     * GitletException if the key isn't inside the key root (so names
+     * another repo's working file). */
+    public static File fileOf(String key) {
+        String root = getKeyRoot();
+        if (!Remote.isUnder(key, root)) {
+            throw error("File is outside this repository: " + key);
+        }
+        return join(PROJ_DIR, key.substring(root.length() + 1));
+    }
+
+    /** Creates a repo with no commits yet, whose only remote is origin
+     * (at originPath). For clones. */
+    private Repository(String originPath) {
+        stagedFiles = new HashMap<>();
+        remotes = new HashMap<>();
+        doomedFiles = new ArrayDeque<>();
+        setupPersistence();
+        remotes.put(ORIGIN, originPath);
+    }
+
+    /** Called by main - creates a new repo that's a copy of the remote
+     * repo whose /.gitlet/ is at path, and checks out its current branch.
+     * FOR CLONE COMMAND ONLY.
+     * Only the last depth commits of history are copied, unless depth
+     * is 0. If blobless, only the checked-out commit's blobs are copied;
+     * any others are fetched from the remote when they're first needed.
+     * Returns null if repo has already been initialized. */
+    public static Repository cloneRepository(String path, int depth,
+                                             boolean blobless) {
+        if (repoExists()) {
+            return null;
+        }
+        String originPath = getAbsPath(path);
+        Remote origin = new Remote(originPath);
+        if (!origin.exists()) {
+            throw error("Remote directory not found.");
+        }
+        String brName = origin.getCurrentBranch();
+        String tip = origin.getBranchHead(brName);
+        Repository r = new Repository(originPath);
+        // keep the origin's keys, so shared commits name the same files
+        writeAtomically(ROOT_FILE,
+                origin.getKeyRoot().getBytes(StandardCharsets.UTF_8));
+        keyRoot = null;
+        /** copy the tip's history (or its last depth commits) */
+        File originDir = origin.getGitletDir();
+        CommitIndex originIndex = CommitIndex.of(originDir);
+        File originCommits = join(originDir, "commits");
+        List<String> shas = (depth > 0)
+            ? Remote.shallowCommits(originIndex, originCommits, tip, depth)
+            : Remote.missingCommits(originIndex, originCommits, tip,
+                sha -> false);
+        Map<String, Commit> commits = Remote.readCommits(originDir, shas);
+        Set<String> blobs = new LinkedHashSet<>();
+        List<String> shallow = new ArrayList<>();
+        for (Commit c : commits.values()) {
+            if (!blobless || c.getMySha().equals(tip)) {
+                blobs.addAll(c.getBlobMap().values());
+            }
+            // if this commit's parents were left behind
+            if ((c.getParent() != null && !commits.containsKey(c.getParent()))
+                    || (c.getSecondParent() != null
+                    && !commits.containsKey(c.getSecondParent()))) {
+                shallow.add(c.getMySha());
+            }
+        }
+        Remote.copyObjects(originDir, GITLET_DIR, CommitIndex.local(), blobs,
+                commits);
+        if (!shallow.isEmpty()) {
+            PartialClone.setShallow(shallow);
+        }
+        if (blobless) {
+            PartialClone.setOrigin(originPath);
+        }
+        /** set up branches and check out the tip */
+        RefStore.local().set(ORIGIN + "/" + brName, tip, "clone: from "
+                + originPath);
+        r.head = brName;
+        r.moveHead(tip, "clone: from " + originPath);
+        Commit.readCommit(tip).writeToProject();
+        return r;
+    }
+
+    /** Sends what this repo's commands print to o. */
+    void setOutput(PrintStream o) {
+        out = o;
+    }
+
+    /** Returns where this repo's commands print to. */
+    private PrintStream out() {
+        return (out == null) ? System.out : out;
+    }
+
+    /** Returns the sha of the current (HEAD) branch's head commit. */
+    public String getHeadSha() {
+        return Branch.readBranch(head).getHeadCommit();
+    }
+
+    /** Returns the name of the current (HEAD) branch. */
+    String getHeadName() {
+        return head;
     }
 
     /** Called at the end of main. May recieve a null r. */
@@ -117,11 +248,9 @@ public class Repository implements Serializable {
             newC = new Commit(m, b.getHeadCommit(), secondParent, stagedFiles,
                     doomedFiles);
         }
-        // update branch pointer
-        b.makeCommit(newC.getMySha());
-        // save updated branch pointer. also updates branches w/
-        // b's new sha value.
-        b.saveBranch();
+        // update & save branch pointer
+        moveHead(newC.getMySha(), ((secondParent == null) ? "commit: "
+                : "commit (merge): ") + m);
         // clear all staged files
         clearStaging();
         return true;
@@ -144,8 +273,8 @@ public class Repository implements Serializable {
     }
 
     /** Sets up structure inside .gitlet directory.
-     * Returns whether folders were created. */
-    private boolean setupPersistence() {
+     * Throws a GitletException if it can't. */
+    private void setupPersistence() {
         try {
             // make directories
             GITLET_DIR.mkdir();
@@ -156,10 +285,8 @@ public class Repository implements Serializable {
             // make file to serialize this object to
             REPO_FILE.createNewFile();
         } catch (IOException e) {
-            System.out.println("Persistence setup failed!");
-            return false;
+            throw error("Persistence setup failed!");
         }
-        return true;
     }
 
     /** Adds a file instance as a serialized blob
@@ -174,7 +301,7 @@ public class Repository implements Serializable {
             // delete file
             f.delete();
         }
-        File workingF = new File(path);
+        File workingF = fileOf(path);
         // if desired file doesn't exist
         if (!workingF.exists()) {
             return false; // file DNE, can't stage
@@ -210,7 +337,7 @@ public class Repository implements Serializable {
      * Returns whether the file could be removed in either of these ways. */
     public boolean removeFile(String path) {
         // get file obj of path
-        File workingF = new File(path);
+        File workingF = fileOf(path);
         // get head commit
         Commit headC = getHeadCommit(head);
         /** If the file is neither staged nor tracked by the head commit */
@@ -264,16 +391,14 @@ public class Repository implements Serializable {
         // if this commit DNE
         if (c == null) {
             // show error message & quit
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw error("No commit with that id exists.");
         }
         // get blob-instance for desired file
         String blobSha = c.getBlobSha(filePath);
         // if file DNE in this commit
         if (blobSha == null) {
             // show error message & quit
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         }
         // deserialize this blob
         Blob blob = Blob.readBlob(blobSha);
@@ -292,22 +417,22 @@ public class Repository implements Serializable {
     public void checkoutBranch(String branchName) {
         /** Handle failure cases */
         // if desired branch DNE
-        if (!branches.contains(branchName)) {
+        if (!RefStore.local().contains(branchName)) {
             // show error message & quit
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw error("No such branch exists.");
         }
         // if desired branch is current branch
         if (head.equals(branchName)) {
             // show error message & quit
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw error("No need to checkout the current branch.");
         }
         /** do checkout */
         // get head commit from given branch
         Commit headC = getHeadCommit(branchName);
         // checkout commit
         checkoutCommit(headC);
+        Reflog.local(Reflog.HEAD).append(getHeadSha(), headC.getMySha(),
+                "checkout: moving from " + head + " to " + branchName);
         // make given branch the head
         head = branchName;
     }
@@ -321,9 +446,8 @@ public class Repository implements Serializable {
         // if there is an untracked file in the way, & should heed to it.
         if (!c.canWriteToProject(headC)) {
             // show error message & quit
-            System.out.println("There is an untracked file in the way; "
+            throw error("There is an untracked file in the way; "
                     + "delete it, or add and commit it first.");
-            System.exit(0);
         }
         /** Clear staging & delete files tracked in head commit */
         // files in head
@@ -331,7 +455,7 @@ public class Repository implements Serializable {
             // if not in the given commit, too
             if (c.getBlobSha(path) == null) {
                 // delete file
-                File f = new File(path);
+                File f = fileOf(path);
                 f.delete();
             }
         }
@@ -346,39 +470,32 @@ public class Repository implements Serializable {
      * Makes this commit the head of the current branch.
      * Returns whether the given commit exists. */
     public boolean reset(String commitSha) {
+        // deserialize commit
+        Commit c = Commit.readCommit(commitSha);
         // if commit DNE
-        if (!plainFilenamesIn(COMMITS_DIR).contains(commitSha)) {
+        if (c == null) {
             return false;
         }
-        // deserialize commit
-        Commit c = Commit.readCommit(commitSha);
         // checkout commit
         checkoutCommit(c);
-        // get current branch
-        Branch b = Branch.readBranch(head);
         // update this branch's current commit & save it
-        b.makeCommit(c.getMySha());
-        b.saveBranch();
+        moveHead(c.getMySha(), "reset: moving to " + c.getMySha());
         return true;
     }
 
     /** Given however many characters of a COMMIT ID,
-     * Return some complete commit ID matching this prefix.
-     * Return null if no matches. Simply returns a complete sha val. */
+     * Return the complete commit ID matching this prefix, found with a
+     * binary search of the sorted sha index.
+     * Return null if no matches. If several commits match,
+     * show error message & quit. */
     public static String getFullSha(String prefix) {
-        // if already a complete sha, return it
-        int normalLength = 40;
-        if (prefix.length() >= normalLength) {
-            return prefix;
-        }
-        // iterate over all commit's sha vals
-        for (String sha : plainFilenamesIn(COMMITS_DIR)) {
-            // if prefix matches
-            if (sha.substring(0, prefix.length()).equals(prefix)) {
-                return sha;
-            }
+        // look for up to 2 matches, enough to tell if it's ambiguous
+        List<String> matches = CommitIndex.local().findPrefix(prefix, 2);
+        if (matches.size() > 1) {
+            // show error message & quit
+            throw error("More than one commit has that id prefix.");
         }
-        return null;
+        return matches.isEmpty() ? null : matches.get(0);
     }
 
     /** Given a branch's name, deserialize and return its head commit. */
@@ -402,27 +519,56 @@ public class Repository implements Serializable {
     /** recursive structure for function */
     private void printLog(Commit c) {
         // print this commit
-        c.printLog();
+        c.printLog(out());
         // get parent of this commit's sha
         String parentSha = c.getParent();
-        // if NOT at end of commit history
-        if (parentSha != null) {
-            // get parent commit
-            Commit parent = Commit.readCommit(parentSha);
+        // get parent commit
+        Commit parent = Commit.readCommit(parentSha);
+        // if NOT at end of (a shallow repo's) commit history
+        if (parent != null) {
             // recurse onto parent
             printLog(parent);
         }
     }
 
-    /** Prints every commit's log in no particular order. */
+    /** Like printLog, but only displays the commits that changed the
+     * file at path (relative to their first parent). Commits whose
+     * changed-path filters rule out path are skipped without being read. */
+    public void printLog(String path) {
+        CommitIndex index = CommitIndex.local();
+        PathFilters filters = index.getPathFilters();
+        String sha = Branch.readBranch(head).getHeadCommit();
+        while (sha != null) {
+            int pos = index.positionOf(sha);
+            // if this commit might have touched path
+            if (filters.mayHaveChanged(pos, path)) {
+                // compare against parent to rule out false positives
+                Commit c = Commit.readCommit(sha);
+                if (c == null) {
+                    break; // end of a shallow repo's history
+                }
+                Commit parent = Commit.readCommit(c.getParent());
+                String parentBlob = (parent == null) ? null
+                        : parent.getBlobSha(path);
+                if (!Objects.equals(c.getBlobSha(path), parentBlob)) {
+                    c.printLog(out());
+                }
+                sha = c.getParent();
+            } else {
+                // only need the header to keep walking
+                sha = index.get(pos).getParent();
+            }
+        }
+    }
+
+    /** Prints every commit's log in no particular order.
+     * Reads only the commit index, never the commits themselves. */
     public void printGlobalLog() {
-        // iterate over contents of /commits/ (AKA every commit)
-        for (String sha : plainFilenamesIn(COMMITS_DIR)) {
-            // deserialize commit
-            File f = join(COMMITS_DIR, sha);
-            Commit c = readObject(f, Commit.class);
+        CommitIndex index = CommitIndex.local();
+        // iterate over every commit's header
+        for (int pos = 0; pos < index.size(); pos += 1) {
             // print commit's log
-            c.printLog();
+            index.get(pos).printLog(out());
         }
     }
 
@@ -438,54 +584,56 @@ public class Repository implements Serializable {
     }
     /** Print's repos branches, & marks the current HEAD. */
     private void printBranches() {
-        System.out.println("=== Branches ===");
-        // iterate over branches' names
-        for (String brName : branches) {
+        out().println("=== Branches ===");
+        // iterate over branches' names, in order
+        for (String brName : RefStore.local().names()) {
             // if current head
             if (brName.equals(head)) {
                 // mark head branch
                 brName = "*" + brName;
             }
-            System.out.println(brName);
+            out().println(brName);
         }
-        System.out.println();
+        out().println();
     }
     /** Generic file printer, takes in a set of absolute
      * file paths, and a title. Handles formatting too.  */
     private void printFiles(Iterable<String> absPaths, String message) {
-        System.out.println("=== " + message + " ===");
+        out().println("=== " + message + " ===");
         // iterate over staged files' abs paths
         for (String absPath : absPaths) {
             // print rel path
             String relPath = getRelPath(absPath);
-            System.out.println(relPath);
+            out().println(relPath);
         }
-        System.out.println();
+        out().println();
     }
     /** Generic file printer, takes in a set of absolute
      * file paths, and a title. Handles formatting too.  */
     private void printUnstagedMods() {
-        System.out.println("=== Modifications Not Staged For Commit ===");
+        out().println("=== Modifications Not Staged For Commit ===");
         // iterate over staged files' abs paths
         for (String absPath : getUnstagedMods()) {
             // print rel path
             String relPath = getRelPath(absPath);
-            System.out.println(relPath);
+            out().println(relPath);
         }
-        System.out.println();
+        out().println();
     }
     /** Returns a set of the absolute paths of
      * Files that are TRACKED IN HEAD COMMIT, &
      * have been modified since, but NOT STAGED.
      * Also marks whether files were modified or deleted. */
     private Iterable<String> getUnstagedMods() {
+        GitletEvents.TreeScan event = new GitletEvents.TreeScan();
+        event.begin();
         ArrayDeque<String> unstagedModFiles = new ArrayDeque<>();
         Commit c = getHeadCommit(head);
         // get map of commit's paths, sha vals.
         HashMap<String, String> blobs = c.getBlobMap();
         // iterate over current commit's files
         for (String path : blobs.keySet()) {
-            File f = new File(path);
+            File f = fileOf(path);
             /** add f if it wasn't deleted using rm */
             // if file was deleted
             if (!f.exists()) {
@@ -511,11 +659,29 @@ public class Repository implements Serializable {
                 unstagedModFiles.add(path);
             }
         }
+        if (event.shouldCommit()) {
+            event.kind = "unstaged";
+            event.files = unstagedModFiles.size();
+            event.commit();
+        }
         return unstagedModFiles;
     }
     /** Returns a deque of the absolute paths of
      * Files that are not tracked in the given commit, nor staged */
     private ArrayDeque<String> getUntrackedFiles(File dir, Commit c) {
+        GitletEvents.TreeScan event = new GitletEvents.TreeScan();
+        event.begin();
+        ArrayDeque<String> untrackedFiles = findUntrackedFiles(dir, c);
+        if (event.shouldCommit()) {
+            event.kind = "untracked";
+            event.files = untrackedFiles.size();
+            event.commit();
+        }
+        return untrackedFiles;
+    }
+    /** Does getUntrackedFiles' scan (recursively, so one scan is one
+     * event). */
+    private ArrayDeque<String> findUntrackedFiles(File dir, Commit c) {
         ArrayDeque<String> untrackedFiles = new ArrayDeque<>();
         // iterate over plain files in this dir
         for (String name : plainFilenamesIn(dir)) {
@@ -528,10 +694,10 @@ public class Repository implements Serializable {
             // if file is a dir
             if (f.isDirectory()) {
                 // add untracked files w/i this dir (RECURSE)
-                untrackedFiles.addAll(getUntrackedFiles(f, c));
+                untrackedFiles.addAll(findUntrackedFiles(f, c));
             } else {
-                // get file's path
-                String path = f.getAbsolutePath();
+                // get file's key
+                String path = keyOf(f);
                 // if not tracked in head commit, or staged
                 if (c.getBlobSha(path) == null
                         && !stagedFiles.containsKey(path)) {
@@ -547,43 +713,127 @@ public class Repository implements Serializable {
     private String getRelPath(String absPath) {
         // get num of chars needed to offset to convert abs path to
         // PROJ_DIR-relative path.
-        int pathOffset = PROJ_DIR.getAbsolutePath().length() + 1;
+        int pathOffset = getKeyRoot().length() + 1;
         // return substring
         return absPath.substring(pathOffset);
     }
 
-    /** Prints out the ids of all commits that have the
-     * given commit message, one per line.
-     * Returns whether any matches were found.  */
-    public boolean findPrint(String m) {
-        boolean matchFound = false;
-        // iterate over all commits' sha vals
-        for (String sha : plainFilenamesIn(COMMITS_DIR)) {
-            // deserialize commit
-            Commit c = Commit.readCommit(sha);
+    /** Prints how the working files differ from the staging area
+     * (what would be staged by add), as unified diffs or as a --stat
+     * summary. Untracked files are ignored. */
+    public void printDiff(boolean stat) {
+        HashMap<String, String> index = getIndexMap();
+        // hash working versions of tracked files, keeping their contents
+        HashMap<String, String> working = new HashMap<>();
+        HashMap<String, String> workingText = new HashMap<>();
+        for (String path : index.keySet()) {
+            if (fileOf(path).isFile()) {
+                Blob b = new Blob(path, PROJ_DIR);
+                working.put(path, b.getSha());
+                workingText.put(path, b.getContents());
+            }
+        }
+        new UnifiedDiff(out(), stat).compare(index, working,
+                this::readIndexText, workingText::get, this::getRelPath);
+    }
+
+    /** Prints how the staging area differs from the head commit
+     * (what would be committed), as unified diffs or as a --stat summary. */
+    public void printStagedDiff(boolean stat) {
+        HashMap<String, String> headMap = getHeadCommit(head).getBlobMap();
+        new UnifiedDiff(out(), stat).compare(headMap, getIndexMap(),
+                path -> Blob.readBlob(headMap.get(path)).getContents(),
+                this::readIndexText, this::getRelPath);
+    }
+
+    /** Prints how the files of commit c1 differ from those of c2,
+     * as unified diffs or as a --stat summary.
+     * Returns whether both commits exist. */
+    public boolean printCommitDiff(String c1, String c2, boolean stat) {
+        Commit before = Commit.readCommit(c1);
+        Commit after = Commit.readCommit(c2);
+        if (before == null || after == null) {
+            return false;
+        }
+        HashMap<String, String> beforeMap = before.getBlobMap();
+        HashMap<String, String> afterMap = after.getBlobMap();
+        new UnifiedDiff(out(), stat).compare(beforeMap, afterMap,
+                path -> Blob.readBlob(beforeMap.get(path)).getContents(),
+                path -> Blob.readBlob(afterMap.get(path)).getContents(),
+                this::getRelPath);
+        return true;
+    }
+
+    /** Returns the files the next commit would have, as a map
+     * (K=abs path, V=sha val): the head commit's, plus staged
+     * files, minus files staged for removal. */
+    private HashMap<String, String> getIndexMap() {
+        HashMap<String, String> index =
+                new HashMap<>(getHeadCommit(head).getBlobMap());
+        index.putAll(stagedFiles);
+        for (String path : doomedFiles) {
+            index.remove(path);
+        }
+        return index;
+    }
+
+    /** Returns the contents of the version of path in the staging area,
+     * which is either a staged blob or the head commit's blob. */
+    private String readIndexText(String path) {
+        if (stagedFiles.containsKey(path)) {
+            return Blob.readBlob(stagedFiles.get(path), STAGED_DIR)
+                    .getContents();
+        }
+        return Blob.readBlob(getHeadCommit(head).getBlobSha(path))
+                .getContents();
+    }
+
+    /** Returns the ids of all commits that have the
+     * given commit message. */
+    public List<String> findCommits(String m) {
+        List<String> matches = new ArrayList<>();
+        CommitIndex index = CommitIndex.local();
+        byte[] message = m.getBytes(StandardCharsets.UTF_8);
+        // iterate over all commits' headers
+        for (int pos = 0; pos < index.size(); pos += 1) {
             // if matching message found
-            if (c.getMessage().equals(m)) {
-                matchFound = true;
-                System.out.println(sha);
+            if (index.hasMessage(pos, message)) {
+                matches.add(index.getSha(pos));
             }
         }
-        return matchFound;
+        return matches;
+    }
+
+    /** Returns the ids of all commits whose messages contain
+     * every one of the given terms. A term ending in '*'
+     * matches any word starting with it. Case is ignored. */
+    public List<String> grepCommits(List<String> terms) {
+        CommitIndex index = CommitIndex.local();
+        BitSet matches = index.getMessageIndex().search(terms, index.size());
+        List<String> shas = new ArrayList<>();
+        // iterate over matching commits' positions
+        for (int pos = matches.nextSetBit(0); pos >= 0;
+             pos = matches.nextSetBit(pos + 1)) {
+            shas.add(index.getSha(pos));
+        }
+        return shas;
     }
 
     /** Creates a new branch with the given name, and points it
      * at the current head commit. DOES NOT change the HEAD branch.
      * Returns whether the branch was created (name collision?) */
     public boolean makeBranch(String name) {
+        if (!RefStore.isValidName(name)) {
+            throw error("Not a valid branch name.");
+        }
         // if name already taken
-        if (branches.contains(name)) {
+        if (RefStore.local().contains(name)) {
             return false;
         }
         // get current commit's sha
         String headSha = Branch.readBranch(head).getHeadCommit();
         // create & save branch
-        Branch b = new Branch(name, headSha);
-        // add branch to repo's record
-        branches.add(name);
+        RefStore.local().set(name, headSha, "branch: Created from " + head);
         return true;
     }
 
@@ -592,136 +842,198 @@ public class Repository implements Serializable {
     public void removeBranch(String name) {
         /** Failure cases */
         // if branch DNE
-        if (!branches.contains(name)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        RefStore refs = RefStore.local();
+        if (!refs.contains(name)) {
+            throw error("A branch with that name does not exist.");
         }
         // can't delete current branch
         if (name.equals(head)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         }
-        /** Delete branch */
-        // get file of serialized branch
-        File f = join(BRANCHES_DIR, name);
-        // delete this file
-        f.delete();
-        // remove branch from repo's record
-        branches.remove(name);
+        /** Delete branch (loose and/or packed) */
+        refs.delete(name);
     }
 
     /** failure cases. (excluding 'untracked files in the way') */
     private void mergeFailures(String brName) {
         // if branch DNE
-        if (!branches.contains(brName)) {
+        if (!RefStore.local().contains(brName)) {
             // print failure and exit
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
             // if there are changes staged
         } else if (!stagedFiles.isEmpty() || !doomedFiles.isEmpty()) {
             // print failure and exit
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw error("You have uncommitted changes.");
             // if trying to merge head to into head
         } else if (head.equals(brName)) {
             // print failure and exit
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         }
     }
 
-    /** handle merges */
-    public void merge(String brName) {
+    /** handle merges.
+     * Returns whether the merge had conflicts. */
+    public boolean merge(String brName) {
         mergeFailures(brName);
-        Branch headBr = Branch.readBranch(head);
         Branch b = Branch.readBranch(brName);
         Commit curr = getHeadCommit(head);
         Commit given = getHeadCommit(brName);
+        // (fetched before foreign commits were refused, see copyHistory)
+        Remote.checkKeys(List.of(given), getKeyRoot());
+        GitletEvents.MergePhase phase =
+            GitletEvents.MergePhase.begin(brName, "split");
         Commit split = Branch.getSplit(curr, given);
+        if (split == null) {
+            phase.end(0);
+            throw error("No split point found; "
+                    + "the history is too shallow.");
+        }
         /** special cases */
         if (given.isAncestor(curr)) { // if b is an ancestor of headBr
             // (don't want to revert to an older commit in headBr's history)
-            System.out.println("Given branch is an ancestor of "
+            phase.end(0);
+            throw error("Given branch is an ancestor of "
                     + "the current branch.");
-            System.exit(0);
         }
         if (curr.isAncestor(given)) { // if headBr is an ancestor of b
-            checkoutBranch(brName); // checkout branch
+            phase = phase.next("fast-forward", 0);
+            // check out given's files, staying on headBr
+            checkoutCommit(given);
             // move headBr pointer to b's current commit
-            headBr.makeCommit(b.getHeadCommit());
-            headBr.saveBranch(); // save update HEAD instance
-            System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
+            moveHead(b.getHeadCommit(), "merge " + brName + ": Fast-forward");
+            out().println("Current branch fast-forwarded.");
+            phase.end(given.getBlobMap().size());
+            return false;
         } /** Figure out which files to checkout, remove, and merge */
+        phase = phase.next("classify", 0);
+        // classified by blob ids alone, no blob is read here.
+        HashMap<String, String> currMap = curr.getBlobMap();
+        HashMap<String, String> givenMap = given.getBlobMap();
+        HashMap<String, String> splitMap = split.getBlobMap();
+        // K=path to write the result to, V=blob sha in split/curr/given
+        HashMap<String, String> splitView = new HashMap<>(splitMap);
+        HashMap<String, String> currView = new HashMap<>(currMap);
+        HashMap<String, String> givenView = new HashMap<>(givenMap);
+        // files given renamed, which should leave their old paths
+        Set<String> renamedAway = new HashSet<>();
+        followRenames(splitMap, givenMap, currMap, splitView, currView,
+                renamedAway);
+        followRenames(splitMap, currMap, givenMap, splitView, givenView,
+                null);
         Set<String> paths = new HashSet<String>();
-        paths.addAll(given.getBlobMap().keySet());
-        paths.addAll(curr.getBlobMap().keySet());
-        ArrayDeque<String> toStage = new ArrayDeque<>();
-        ArrayDeque<String> toMerge = new ArrayDeque<>();
-        ArrayDeque<String> toRemove = new ArrayDeque<>();
-        boolean mergeConflict = false;
+        paths.addAll(givenView.keySet());
+        paths.addAll(currView.keySet());
+        Set<String> toStage = new HashSet<>();
+        Set<String> toMerge = new HashSet<>();
+        Set<String> toRemove = new HashSet<>(renamedAway);
         for (String path : paths) {
-            Blob currB = Blob.readBlob(curr.getBlobSha(path));
-            Blob givenB = Blob.readBlob(given.getBlobSha(path));
-            Blob splitB = Blob.readBlob(split.getBlobSha(path));
-            // file only exists in given
-            if (givenB != null && currB == null && splitB == null) {
-                toStage.add(path);
+            String currSha = currView.get(path);
+            String givenSha = givenView.get(path);
+            String splitSha = splitView.get(path);
+            if (renamedAway.contains(path)) {
+                continue;
+            }
+            // given didn't change this file, or both changed it the same way
+            if (Objects.equals(givenSha, splitSha)
+                    || Objects.equals(givenSha, currSha)) {
+                continue;
+            }
             // only given changed this file
-            } else if (blobsEqual(splitB, currB)
-                    && givenB != null && !givenB.equals(splitB)) {
-                toStage.add(path);
-            // only changed in given, where it was deleted
-            } else if (given.wasDeleted(path, split)
-                    && blobsEqual(splitB, currB)) {
-                toRemove.add(path);
+            if (Objects.equals(currSha, splitSha)) {
+                if (givenSha == null) {
+                    toRemove.add(path); // given deleted it
+                } else {
+                    toStage.add(path);
+                }
             // file changed differently in both (may not exist in split).
-            } else if (!blobsEqualNull(currB, givenB)
-                    && !blobsEqualNull(currB, splitB)
-                    && !blobsEqualNull(givenB, splitB)) {
-                mergeConflict = true;
+            } else {
                 toMerge.add(path);
             }
         } /** Failure case: untracked file would be overwritten/deleted. */
+        phase = phase.next("check", paths.size());
         for (String path : getUntrackedFiles(PROJ_DIR, curr)) {
             // if file should be removed or staged (no need to check toMerge)
             if (toRemove.contains(path) || toStage.contains(path)) {
-                System.out.println("There is an untracked file in the way; "
+                phase.end(0);
+                throw error("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
-                System.exit(0);
             }
         }
+        phase = phase.next("stage", 0);
         for (String path : toStage) {
-            checkoutFileFromCommit(path, given.getMySha());
-            stageFile(path);
+            // given's version is already a saved blob
+            stageMergedBlob(path, Blob.readBlob(givenView.get(path)));
         }
         for (String path : toRemove) {
-            removeFile(path);
+            // tracked in head, so just stage for removal
+            doomedFiles.addLast(path);
+            fileOf(path).delete();
         }
+        phase = phase.next("resolve", toStage.size() + toRemove.size());
+        boolean mergeConflict = false;
         for (String path : toMerge) {
-            Blob currB = Blob.readBlob(curr.getBlobSha(path));
-            Blob givenB = Blob.readBlob(given.getBlobSha(path));
-            Blob newB = Blob.mergeBlobs(currB, givenB);
-            newB.writeToProject();
-            stageFile(path);
+            // only now read contents, of the files that really need merging
+            Blob currB = Blob.readBlob(currView.get(path));
+            Blob givenB = Blob.readBlob(givenView.get(path));
+            Blob splitB = Blob.readBlob(splitView.get(path));
+            // merge line by line, conflicts are only where both changed
+            TextMerge merged = Blob.mergeBlobs(splitB, currB, givenB);
+            if (merged.hasConflicts()) {
+                mergeConflict = true;
+            }
+            stageMergedBlob(path, new Blob(path, merged.getResult()));
         } /** do merge commit */
+        phase = phase.next("commit", toMerge.size());
         String m = "Merged " + brName + " into " + head + ".";
         makeCommit(m, b.getHeadCommit());
+        phase.end(0);
         if (mergeConflict) {
-            System.out.println("Encountered a merge conflict.");
+            out().println("Encountered a merge conflict.");
         }
+        return mergeConflict;
     }
 
-    /** Returns whether these blobs are non-null and equal. */
-    private static boolean blobsEqual(Blob b0, Blob b1) {
-        return b0 != null && b1 != null && b0.equals(b1);
+    /** Writes a blob produced by a merge to path in the working project,
+     * and stages it for addition. Unlike stageFile, doesn't re-read the
+     * file or the head commit (merge already knows the blob differs). */
+    private void stageMergedBlob(String path, Blob b) {
+        // a blob followed from a rename still records its old path
+        if (!b.getPath().equals(path)) {
+            b = new Blob(path, b.getContents());
+        }
+        b.writeToProject();
+        b.saveBlob(STAGED_DIR);
+        stagedFiles.put(path, b.getSha());
     }
 
-    /** Returns whether two blobs are equal.
-     * If they are both null, return true as well. */
-    private static boolean blobsEqualNull(Blob b0, Blob b1) {
-        return (b0 == null && b1 == null)
-                || ((b0 != null && b1 != null) && b0.equals(b1));
+    /** For every file renamed between split and one side (renamer),
+     * that the other side (other) still has at its old path and doesn't
+     * have at its new one, make the views of split and the other side
+     * see it at the new path, so both sides' changes meet there.
+     * If renamedAway isn't null, old paths are added to it (as the other
+     * side is HEAD, which still tracks them); otherwise they are dropped
+     * from the other side's view. */
+    private static void followRenames(Map<String, String> split,
+                                      Map<String, String> renamer,
+                                      Map<String, String> other,
+                                      Map<String, String> splitView,
+                                      Map<String, String> otherView,
+                                      Set<String> renamedAway) {
+        for (Map.Entry<String, String> e
+                : Renames.find(split, renamer).entrySet()) {
+            String newPath = e.getKey();
+            String oldPath = e.getValue();
+            if (!other.containsKey(oldPath) || other.containsKey(newPath)) {
+                continue; // other side deleted/renamed it too, or added one
+            }
+            splitView.put(newPath, split.get(oldPath));
+            otherView.put(newPath, other.get(oldPath));
+            if (renamedAway != null) {
+                renamedAway.add(oldPath);
+            } else {
+                otherView.remove(oldPath);
+            }
+        }
     }
 
     /** Adds a remote repo. Returns false if this remote already exists. */
@@ -746,7 +1058,7 @@ public class Repository implements Serializable {
 
     /** Given a PROJ_DIR-relative path, potentially containing '../',
      * return a string of this file's absolute path.*/
-    private String getAbsPath(String p) {
+    private static String getAbsPath(String p) {
         // the parent directory of /.gitlet/
         File dir = new File(PROJ_DIR.getAbsolutePath());
         for (String name : p.split("/")) {
@@ -761,8 +1073,162 @@ public class Repository implements Serializable {
         return f.getAbsolutePath();
     }
 
-    /** Push a branch to a remote repo.  */
+    /** Returns the remote with the given name, exiting if it (or its
+     * directory) D.N.E. */
+    private Remote getRemote(String remoteName) {
+        String path = remotes.get(remoteName);
+        Remote remote = (path == null) ? null : new Remote(path);
+        if (remote == null || !remote.exists()) {
+            throw error("Remote directory not found.");
+        }
+        return remote;
+    }
+
+    /** Push a branch to a remote repo: copies the current head's commits
+     * (and their blobs) that the remote lacks, then points the remote's
+     * branch at the current head. The remote's branch must be in the
+     * current head's history. */
     public void push(String remoteName, String brName) {
+        Remote remote = getRemote(remoteName);
+        // the remote's writers must wait for this push (and vice versa)
+        RepoLock.acquire(remote.getGitletDir());
+        String localHead = Branch.readBranch(head).getHeadCommit();
+        String remoteHead = remote.getBranchHead(brName);
+        if (remoteHead != null
+                && !CommitIndex.local().reaches(localHead, remoteHead)) {
+            throw error("Please pull down remote changes before pushing.");
+        }
+        Remote.copyHistory(GITLET_DIR, remote.getGitletDir(), localHead);
+        remote.setBranchHead(brName, localHead);
+    }
+
+    /** Copies a remote branch's commits (and their blobs) that this repo
+     * lacks, and points the local branch "[remote]/[branch]" at its head. */
+    public void fetch(String remoteName, String brName) {
+        Remote remote = getRemote(remoteName);
+        String remoteHead = remote.getBranchHead(brName);
+        if (remoteHead == null) {
+            throw error("That remote does not have that branch.");
+        }
+        String localName = remoteName + "/" + brName;
+        if (!RefStore.isValidName(localName)) {
+            throw error("Not a valid branch name.");
+        }
+        if (localName.equals(head)) {
+            // would move HEAD without updating the working files
+            throw error("Cannot fetch into the current branch.");
+        }
+        Remote.copyHistory(remote.getGitletDir(), GITLET_DIR, remoteHead);
+        RefStore.local().set(localName, remoteHead, "fetch: " + remoteName
+                + " " + brName);
+    }
+
+    /** Writes branch brName's commits and blobs into a bundle file,
+     * leaving out the history of commit sinceSha if it isn't null. */
+    public void createBundle(File bundle, String brName, String sinceSha) {
+        String tip = RefStore.local().get(brName);
+        if (tip == null) {
+            throw error("A branch with that name does not exist.");
+        }
+        Bundle.create(bundle, brName, tip, sinceSha);
+    }
+
+    /** Expires Reflog entries older than Reflog.EXPIRE_DAYS, then deletes
+     * the commits no branch (or Reflog) can reach, the blobs only they
+     * used, and files that crashed commands left behind (see
+     * GarbageCollector), and packs the loose refs. Prints what was
+     * deleted. */
+    public void gc() {
+        RefStore refs = RefStore.local();
+        Reflog.expireAll(GITLET_DIR, Reflog.cutoff(Reflog.EXPIRE_DAYS));
+        List<String> roots = getRoots();
+        GarbageCollector gc = new GarbageCollector();
+        gc.collect(roots, new HashSet<>(stagedFiles.values()));
+        refs.pack();
+        out().println("Removed " + gc.getCommitsRemoved() + " commits, "
+                + gc.getBlobsRemoved() + " blobs and "
+                + gc.getFilesRemoved() + " other files.");
+    }
+
+    /** Checks every commit and blob, and what they refer to (see Fsck).
+     * Prints each problem found. Returns whether there were any. */
+    public boolean fsck() {
+        List<String> problems = new Fsck().check(getRoots(),
+                new HashSet<>(stagedFiles.values()));
+        for (String problem : problems) {
+            out().println(problem);
+        }
+        return !problems.isEmpty();
+    }
+
+    /** Returns the shas of the commits everything else must be reachable
+     * from: the branches' heads, and every commit their Reflogs record
+     * (see Reflog.allShas). */
+    private static List<String> getRoots() {
+        Set<String> roots = new LinkedHashSet<>(RefStore.local().heads()
+                .values());
+        roots.addAll(Reflog.allShas(GITLET_DIR));
+        return new ArrayList<>(roots);
+    }
+
+    /** Prints the newest limit movements (all of them, if limit is
+     * negative) of branch name, or of HEAD, newest first. */
+    public void printReflog(String name, int limit) {
+        if (!name.equals(Reflog.HEAD) && !RefStore.local().contains(name)) {
+            throw error("A branch with that name does not exist.");
+        }
+        List<Reflog.Entry> entries = Reflog.local(name).newest(limit);
+        for (int i = 0; i < entries.size(); i += 1) {
+            Reflog.Entry e = entries.get(i);
+            out().println(e.getSha().substring(0, 7) + " " + name + "@{" + i
+                    + "}: " + e.getReason());
+        }
+    }
+
+    /** Points the current branch at the commit with the given sha, and
+     * records why in its Reflog and HEAD's. */
+    private void moveHead(String sha, String reason) {
+        String old = RefStore.local().set(head, sha, reason);
+        if (!sha.equals(old)) {
+            Reflog.local(Reflog.HEAD).append(old, sha, reason);
+        }
+    }
+
+    /** Deletes the Reflog entries older than days days (all of them, if
+     * days is 0). Prints how many there were. */
+    public void expireReflogs(int days) {
+        out().println("Expired " + Reflog.expireAll(GITLET_DIR,
+                Reflog.cutoff(days)) + " reflog entries.");
+    }
+
+    /** Moves every loose ref into the packed-refs file (see RefStore).
+     * Prints how many were packed. */
+    public void packRefs() {
+        out().println("Packed " + RefStore.local().pack() + " refs.");
+    }
+
+    /** Unpacks a bundle file's commits and blobs, and points the local
+     * branch "bundle/[branch]" at its branch's head. */
+    public void unbundle(File bundle) {
+        if (!bundle.isFile()) {
+            throw error("File does not exist.");
+        }
+        String[] bundled = Bundle.unbundle(bundle, GITLET_DIR);
+        String localName = "bundle/" + bundled[0];
+        if (!RefStore.isValidName(localName)) {
+            throw error("Not a valid branch name.");
+        }
+        if (localName.equals(head)) {
+            throw error("Cannot fetch into the current branch.");
+        }
+        RefStore.local().set(localName, bundled[1], "unbundle: "
+                + bundle.getName());
+    }
 
+    /** Fetches a remote branch, then merges it into the current branch.
+     * Returns whether the merge had conflicts. */
+    public boolean pull(String remoteName, String brName) {
+        fetch(remoteName, brName);
+        return merge(remoteName + "/" + brName);
     }
 }
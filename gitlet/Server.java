@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import static gitlet.Utils.*;
+
+/** A long-lived gitlet process, serving the repo in its working
+ * directory, so commands don't each pay for starting a JVM.
+ *
+ * The server listens on the Unix-domain socket /.gitlet/server.sock.
+ * A request is one line: the command's arguments, separated by NUL
+ * bytes. The server runs the command just as Main would, sends back
+ * what it printed and closes the connection, so e.g.
+ *     printf 'log\n' | nc -U .gitlet/server.sock
+ * works as well as Client. Commands run one at a time, each taking the
+ * repo's lock as usual, so other gitlet processes can still use the
+ * repo; everything read from /.gitlet/ is read again per command,
+ * except commits (which never change), which stay cached.
+ * @author Cole Tahawi
+ */
+class Server {
+    /** Name of the socket file inside /.gitlet/. */
+    static final String SOCKET_FILE = "server.sock";
+    /** The request that stops the server. */
+    static final String[] STOP = {"serve", "stop"};
+
+    /** Serves the repo in the working directory until a client sends
+     * STOP. */
+    static void serve() {
+        if (!Repository.GITLET_DIR.isDirectory()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        SocketChannel running = connect();
+        if (running != null) {
+            close(running);
+            System.out.println("A gitlet server is already running.");
+            return;
+        }
+        File socket = join(Repository.GITLET_DIR, SOCKET_FILE);
+        // (left behind by a server that was killed)
+        socket.delete();
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            warmUp();
+            boolean serving = true;
+            while (serving) {
+                SocketChannel client = server.accept();
+                try (client) {
+                    serving = handle(client);
+                } catch (IOException excp) {
+                    // the client went away; keep serving the others
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            socket.delete();
+        }
+    }
+
+    /** Returns a connection to the server of the repo in the working
+     * directory, or null if none is running. */
+    static SocketChannel connect() {
+        File socket = join(Repository.GITLET_DIR, SOCKET_FILE);
+        if (!socket.exists()) {
+            return null;
+        }
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(
+                    socket.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Runs the command client sent, sending back what it printed
+     * (everything a command prints goes to the Gitlet's own stream, so
+     * System.out is left alone). Returns false if the client asked the
+     * server to stop. */
+    private static boolean handle(SocketChannel client) throws IOException {
+        String[] args = readRequest(new BufferedInputStream(
+                Channels.newInputStream(client)));
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                Channels.newOutputStream(client)), false,
+                StandardCharsets.UTF_8);
+        boolean stop = Arrays.equals(args, STOP);
+        try {
+            if (stop) {
+                out.println("Server stopped.");
+            } else if (args.length > 0 && args[0].equals("serve")) {
+                out.println("A gitlet server is already running.");
+            } else {
+                // other processes may have written to the index since
+                CommitIndex.forgetAll();
+                // (traces are reported on the server's stderr, see Trace)
+                Main.execute(Trace.start(args), out);
+            }
+        } catch (RuntimeException excp) {
+            // a bug in one command shouldn't take the server down; its
+            // trace goes to the server's stderr, not the client's output
+            excp.printStackTrace();
+        } finally {
+            Trace.finish();
+            out.flush();
+        }
+        return !stop;
+    }
+
+    /** Reads one request from in, returning its arguments. */
+    private static String[] readRequest(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = in.read(); b >= 0 && b != '\n'; b = in.read()) {
+            line.write(b);
+        }
+        String request = line.toString(StandardCharsets.UTF_8);
+        return request.isEmpty() ? new String[0] : request.split("\0", -1);
+    }
+
+    /** Writes the request for the command in args to client. */
+    static void writeRequest(SocketChannel client, String[] args)
+            throws IOException {
+        String request = String.join("\0", args) + "\n";
+        Channels.newOutputStream(client).write(
+                request.getBytes(StandardCharsets.UTF_8));
+        client.shutdownOutput();
+    }
+
+    /** Reads the newest commits into Commit's cache, so the first
+     * commands sent don't have to. */
+    private static void warmUp() {
+        if (!CommitIndex.isBuilt(Repository.GITLET_DIR)) {
+            return;
+        }
+        CommitIndex index = CommitIndex.local();
+        int n = index.size();
+        int oldest = Math.max(0, n - Commit.CACHE_SIZE);
+        for (int pos = n - 1; pos >= oldest; pos -= 1) {
+            Commit.readCommit(index.getSha(pos));
+        }
+    }
+
+    /** Closes ch, ignoring errors. */
+    private static void close(SocketChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException excp) {
+            // nothing more to do with it anyway
+        }
+    }
+}
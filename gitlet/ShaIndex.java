@@ -0,0 +1,315 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static gitlet.Utils.*;
+
+/** Sorted index of commit ids, kept with the rest of a generation of the
+ * CommitIndex, used to resolve (abbreviated) shas with binary searches.
+ *
+ * The index is a list of sorted runs, each a file of fixed-width records
+ * of a raw sha (20 bytes) and that commit's position in the CommitIndex
+ * (4 bytes), sorted by sha. The run in file "ids-[from]-[to]" covers the
+ * commits at positions from (inclusive) to to (exclusive), and the runs
+ * cover the first positions of the CommitIndex between them; the newer
+ * commits form an unsorted "tail" that is scanned directly.
+ * The tail is never allowed to reach MAX_TAIL commits: it is then
+ * written out as a new run, and, like the digits of a binary counter,
+ * the newest two runs are merged for as long as the newer one is at
+ * least as long as the older. So there are only about log2(commits /
+ * MAX_TAIL) runs to search, and each commit is rewritten only about as
+ * many times. A run is never changed once written; a merge writes the
+ * merged run before deleting the two it replaces, and a reader that
+ * sees all three just uses the longest.
+ * (Indices from before runs have one sorted file, "ids", covering the
+ * first (file length / RECORD_SIZE) commits, which is read as a run.)
+ * @author Cole Tahawi
+ */
+class ShaIndex {
+    /** Length in bytes of one record. */
+    private static final int RECORD_SIZE = CommitIndex.SHA_BYTES + 4;
+    /** The tail is written out as a run once it has this many commits. */
+    private static final int MAX_TAIL = 64;
+    /** Start of the names of run files. */
+    private static final String RUN_PREFIX = "ids-";
+
+    /** One sorted run. */
+    private static class Run {
+        /** The positions covered: from (inclusive) to to (exclusive). */
+        final int from;
+        final int to;
+        /** The run's file, and a read-only view of it. */
+        final File file;
+        final ByteBuffer buf;
+
+        Run(int f, int t, File runFile) {
+            from = f;
+            to = t;
+            file = runFile;
+            buf = CommitIndex.map(runFile);
+        }
+
+        /** Returns the number of records in this run. */
+        int size() {
+            return to - from;
+        }
+    }
+
+    /** The directory holding this index's files. */
+    private final File dir;
+    /** The runs, oldest first, read on first use. */
+    private List<Run> runs;
+
+    /** The sorted index inside the given directory. */
+    ShaIndex(File graphDir) {
+        dir = graphDir;
+    }
+
+    /** Deletes this index. */
+    void clear() {
+        List<String> names = plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                if (name.equals("ids") || name.equals("ids.new")
+                        || name.startsWith(RUN_PREFIX)) {
+                    join(dir, name).delete();
+                }
+            }
+        }
+        runs = null;
+    }
+
+    /** Called once a commit has been appended to commits. Writes the
+     * tail out as a run, if it has gotten too long, and merges runs. */
+    void update(CommitIndex commits) {
+        int covered = covered();
+        if (commits.size() - covered < MAX_TAIL) {
+            return;
+        }
+        runs.add(writeTail(commits, covered, commits.size()));
+        while (runs.size() > 1
+                && runs.get(runs.size() - 2).size()
+                   <= runs.get(runs.size() - 1).size()) {
+            Run newer = runs.remove(runs.size() - 1);
+            Run older = runs.remove(runs.size() - 1);
+            runs.add(merge(older, newer));
+        }
+    }
+
+    /** Returns the positions of at most limit commits whose shas start
+     * with the given hex prefix, in no particular order. */
+    List<Integer> find(CommitIndex commits, String prefix, int limit) {
+        List<Integer> result = new ArrayList<>();
+        if (prefix.length() > UID_LENGTH || !isHex(prefix)) {
+            return result;
+        }
+        // the prefix's bytes, padded with zeros: the lowest sha it matches
+        byte[] low = CommitIndex.toBytes(
+                (prefix + "0".repeat(UID_LENGTH)).substring(0, UID_LENGTH));
+        int nibbles = prefix.length();
+        for (Run run : runs()) {
+            // binary search for the first sha >= low
+            int lo = 0;
+            int hi = run.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(run.buf, mid * RECORD_SIZE, low) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            // matches are contiguous from there
+            for (int i = lo; i < run.size() && result.size() < limit; i += 1) {
+                if (!startsWith(run.buf, i * RECORD_SIZE, low, nibbles)) {
+                    break;
+                }
+                int pos = run.buf.getInt(i * RECORD_SIZE
+                        + CommitIndex.SHA_BYTES);
+                // (a run written since commits was mapped may be ahead)
+                if (pos < commits.size()) {
+                    result.add(pos);
+                }
+            }
+        }
+        // then check the tail
+        for (int pos = covered(); pos < commits.size()
+                && result.size() < limit; pos += 1) {
+            if (commits.shaStartsWith(pos, low, nibbles)) {
+                result.add(pos);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of commits covered by the runs. */
+    private int covered() {
+        List<Run> r = runs();
+        return r.isEmpty() ? 0 : r.get(r.size() - 1).to;
+    }
+
+    /** Returns the runs, reading them first if need be. */
+    private List<Run> runs() {
+        for (int tries = 0; runs == null; tries += 1) {
+            try {
+                runs = readRuns();
+            } catch (IllegalArgumentException excp) {
+                // a writer merged away a run after it was listed
+                if (tries == 2) {
+                    throw excp;
+                }
+            }
+        }
+        return runs;
+    }
+
+    /** Returns the runs in dir that cover the most positions from 0 on,
+     * oldest first. */
+    private List<Run> readRuns() {
+        List<String> names = plainFilenamesIn(dir);
+        List<int[]> ranges = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        for (String name : names == null ? List.<String>of() : names) {
+            if (name.equals("ids")) {
+                ranges.add(new int[] {0,
+                    (int) (join(dir, name).length() / RECORD_SIZE)});
+                files.add(join(dir, name));
+            } else if (name.startsWith(RUN_PREFIX)) {
+                String[] range = name.substring(RUN_PREFIX.length())
+                        .split("-");
+                ranges.add(new int[] {Integer.parseInt(range[0]),
+                    Integer.parseInt(range[1])});
+                files.add(join(dir, name));
+            }
+        }
+        List<Run> result = new ArrayList<>();
+        int pos = 0;
+        while (true) {
+            int best = -1;
+            int bestTo = pos;
+            for (int i = 0; i < ranges.size(); i += 1) {
+                if (ranges.get(i)[0] == pos && ranges.get(i)[1] > bestTo) {
+                    best = i;
+                    bestTo = ranges.get(i)[1];
+                }
+            }
+            if (best < 0) {
+                return result;
+            }
+            result.add(new Run(pos, bestTo, files.get(best)));
+            pos = bestTo;
+        }
+    }
+
+    /** Writes the commits at positions [from, to) of commits out as a
+     * run, and returns it. */
+    private Run writeTail(CommitIndex commits, int from, int to) {
+        Integer[] order = new Integer[to - from];
+        byte[][] shas = new byte[order.length][];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+            shas[i] = CommitIndex.toBytes(commits.getSha(from + i));
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(shas[a], shas[b]));
+        File newFile = join(dir, "ids.new");
+        try (DataOutputStream out = open(newFile)) {
+            for (int i : order) {
+                out.write(shas[i]);
+                out.writeInt(from + i);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return install(newFile, from, to);
+    }
+
+    /** Merges runs older and newer (which cover adjacent positions) into
+     * one run, and returns it. Deletes the two once it's in place. */
+    private Run merge(Run older, Run newer) {
+        File newFile = join(dir, "ids.new");
+        try (DataOutputStream out = open(newFile)) {
+            int i = 0;
+            int j = 0;
+            byte[] rec = new byte[RECORD_SIZE];
+            byte[] sha = new byte[CommitIndex.SHA_BYTES];
+            while (i < older.size() || j < newer.size()) {
+                boolean takeOlder = j == newer.size();
+                if (!takeOlder && i < older.size()) {
+                    newer.buf.get(j * RECORD_SIZE, sha);
+                    takeOlder = compare(older.buf, i * RECORD_SIZE, sha) < 0;
+                }
+                if (takeOlder) {
+                    older.buf.get(i * RECORD_SIZE, rec);
+                    i += 1;
+                } else {
+                    newer.buf.get(j * RECORD_SIZE, rec);
+                    j += 1;
+                }
+                out.write(rec);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Run merged = install(newFile, older.from, newer.to);
+        older.file.delete();
+        newer.file.delete();
+        return merged;
+    }
+
+    /** Renames newFile to the run covering [from, to), and returns it. */
+    private Run install(File newFile, int from, int to) {
+        File runFile = join(dir, RUN_PREFIX + from + "-" + to);
+        newFile.renameTo(runFile);
+        return new Run(from, to, runFile);
+    }
+
+    /** Compares the raw sha at offset in buf to sha, as unsigned bytes. */
+    private static int compare(ByteBuffer buf, int offset, byte[] sha) {
+        for (int i = 0; i < CommitIndex.SHA_BYTES; i += 1) {
+            int cmp = Integer.compare(buf.get(offset + i) & 0xff,
+                    sha[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns whether the raw sha at offset in buf starts with the
+     * first nibbles hex digits of the raw sha prefix. */
+    static boolean startsWith(ByteBuffer buf, int offset, byte[] prefix,
+                              int nibbles) {
+        for (int i = 0; i < nibbles / 2; i += 1) {
+            if (buf.get(offset + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return nibbles % 2 == 0
+                || ((buf.get(offset + nibbles / 2) ^ prefix[nibbles / 2])
+                    & 0xf0) == 0;
+    }
+
+    /** Returns whether s is made only of lower-case hex digits. */
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Opens a buffered stream that overwrites file f. */
+    private static DataOutputStream open(File f) throws IOException {
+        return new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(f)));
+    }
+}
@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.util.List;
+
+/** Three-way, line-level merge of two versions of a file (HEAD's and
+ * the given branch's) against their split-point version, in the style
+ * of diff3.
+ *
+ * Both versions are diffed against the split point. Changes that don't
+ * overlap (or touch) in the split point's lines are applied
+ * automatically, as are identical changes made on both sides. Only
+ * regions both sides changed differently become conflicts, marked as
+ *     <<<<<<< HEAD
+ *     (HEAD's lines)
+ *     =======
+ *     (given branch's lines)
+ *     >>>>>>>
+ * @author Cole Tahawi
+ */
+class TextMerge {
+    /** The merged text. */
+    private final String result;
+    /** Number of conflicting regions in result. */
+    private int conflicts;
+
+    /** Merges curr and given, whose common ancestor's version is split.
+     * A missing version (deleted or never created) should be "". */
+    TextMerge(String split, String curr, String given) {
+        Diff.LineTable table = new Diff.LineTable();
+        Diff.Lines base = new Diff.Lines(split);
+        Diff.Lines ours = new Diff.Lines(curr);
+        Diff.Lines theirs = new Diff.Lines(given);
+        table.add(base);
+        table.add(ours);
+        table.add(theirs);
+        List<Diff.Hunk> ourHunks = Diff.diff(base, ours);
+        List<Diff.Hunk> theirHunks = Diff.diff(base, theirs);
+
+        StringBuilder out = new StringBuilder(
+                Math.max(curr.length(), given.length()));
+        // next hunk of each side, and how far each side's line numbers
+        // have drifted from base's (before that hunk)
+        int i = 0;
+        int j = 0;
+        int ourShift = 0;
+        int theirShift = 0;
+        // base lines before this have been written out
+        int basePos = 0;
+        while (i < ourHunks.size() || j < theirHunks.size()) {
+            // start a group with whichever hunk comes first in base
+            boolean startOurs = j == theirHunks.size() || (i < ourHunks.size()
+                    && ourHunks.get(i).aStart <= theirHunks.get(j).aStart);
+            int lo = startOurs ? ourHunks.get(i).aStart
+                    : theirHunks.get(j).aStart;
+            int hi = lo;
+            int oursStart = lo + ourShift;
+            int theirsStart = lo + theirShift;
+            boolean oursChanged = false;
+            boolean theirsChanged = false;
+            // pull in every hunk overlapping or touching the group
+            while (true) {
+                if (i < ourHunks.size() && ourHunks.get(i).aStart <= hi) {
+                    Diff.Hunk h = ourHunks.get(i);
+                    hi = Math.max(hi, h.aEnd);
+                    ourShift += (h.bEnd - h.bStart) - (h.aEnd - h.aStart);
+                    oursChanged = true;
+                    i += 1;
+                } else if (j < theirHunks.size()
+                        && theirHunks.get(j).aStart <= hi) {
+                    Diff.Hunk h = theirHunks.get(j);
+                    hi = Math.max(hi, h.aEnd);
+                    theirShift += (h.bEnd - h.bStart) - (h.aEnd - h.aStart);
+                    theirsChanged = true;
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+            int oursEnd = hi + ourShift;
+            int theirsEnd = hi + theirShift;
+            // unchanged lines before the group
+            base.appendTo(out, basePos, lo);
+            basePos = hi;
+            if (!theirsChanged) {
+                ours.appendTo(out, oursStart, oursEnd);
+            } else if (!oursChanged
+                    || sameLines(ours, oursStart, oursEnd,
+                                 theirs, theirsStart, theirsEnd)) {
+                theirs.appendTo(out, theirsStart, theirsEnd);
+            } else {
+                conflicts += 1;
+                out.append("<<<<<<< HEAD\n");
+                appendLines(out, ours, oursStart, oursEnd);
+                out.append("=======\n");
+                appendLines(out, theirs, theirsStart, theirsEnd);
+                out.append(">>>>>>>\n");
+            }
+        }
+        base.appendTo(out, basePos, base.size());
+        result = out.toString();
+    }
+
+    /** Returns the merged text. */
+    String getResult() {
+        return result;
+    }
+
+    /** Returns whether any region had to be marked as a conflict. */
+    boolean hasConflicts() {
+        return conflicts > 0;
+    }
+
+    /** Returns whether lines [aFrom, aTo) of a are the same
+     * as lines [bFrom, bTo) of b. */
+    private static boolean sameLines(Diff.Lines a, int aFrom, int aTo,
+                                     Diff.Lines b, int bFrom, int bTo) {
+        if (aTo - aFrom != bTo - bFrom) {
+            return false;
+        }
+        for (int k = 0; k < aTo - aFrom; k += 1) {
+            if (a.ids[aFrom + k] != b.ids[bFrom + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Appends lines [from, to) of lines to out, making sure
+     * a conflict marker can follow on its own line. */
+    private static void appendLines(StringBuilder out, Diff.Lines lines,
+                                    int from, int to) {
+        lines.appendTo(out, from, to);
+        if (from < to && out.charAt(out.length() - 1) != '\n') {
+            out.append('\n');
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Reports where a command's time went, for finding out why it's slow.
+ *
+ * Tracing is turned on for one command by putting --trace before it
+ * (e.g. "java gitlet.Main --trace log"), or for every command by setting
+ * the environment variable GITLET_TRACE: to 1, to report on stderr, or
+ * to a file's path, to append reports to that file. A report is one
+ * line of JSON, e.g.
+ *   {"command":"log","wallMs":41.2,
+ *    "phases":{"setup":0.3,"lock":0.8,"load":6.1,"run":33.9,"save":0.1},
+ *    "counts":{"objectReads":12,"objectWrites":0,"bytesRead":5810,...}}
+ * (on one line), giving the time spent in each phase of the command, in
+ * ms, and how often it went through each of gitlet's chokepoints (see
+ * Counter). A batch gets one report, with every command's time in its
+ * phases added up. Counting costs one volatile read when tracing is off.
+ * @author Cole Tahawi
+ */
+class Trace {
+    /** Name of the environment variable that turns tracing on. */
+    static final String ENV = "GITLET_TRACE";
+
+    /** The things counted, and where. */
+    enum Counter {
+        /** Objects read (Utils.readObject). */
+        OBJECT_READS("objectReads"),
+        /** Objects written (Utils.writeObject). */
+        OBJECT_WRITES("objectWrites"),
+        /** Bytes of files read (Utils.readObject and readContents). */
+        BYTES_READ("bytesRead"),
+        /** Bytes of files written (Utils.writeAtomically, which
+         * writeObject uses, writeContents and appendTo). */
+        BYTES_WRITTEN("bytesWritten"),
+        /** Hashes computed (Utils.sha1). */
+        SHA1("sha1"),
+        /** Objects deserialized (Utils.readObject and deserialize). */
+        DESERIALIZATIONS("deserializations"),
+        /** Directories listed (Utils.plainFilenamesIn). */
+        DIR_LISTINGS("dirListings");
+
+        /** Its name in reports. */
+        private final String key;
+        /** Its count so far (added to from parallel streams, too). */
+        private final LongAdder count = new LongAdder();
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    /** Whether the current command is being traced. */
+    private static volatile boolean enabled;
+    /** The traced command's name. */
+    private static String command;
+    /** When the command, and its current phase, started (System.nanoTime). */
+    private static long started;
+    private static long phaseStarted;
+    /** The current phase. */
+    private static String phase;
+    /** K = phase, V = ns spent in it so far, in the order they began. */
+    private static final Map<String, Long> PHASES = new LinkedHashMap<>();
+
+    /** Starts tracing the command in args if it asks to be (see Trace).
+     * Returns args without any leading --trace. */
+    static String[] start(String[] args) {
+        boolean flagged = args.length > 0 && args[0].equals("--trace");
+        if (flagged) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        String env = System.getenv(ENV);
+        enabled = flagged || (env != null && !env.isEmpty()
+                && !env.equals("0"));
+        if (enabled) {
+            command = (args.length == 0) ? "" : args[0];
+            for (Counter c : Counter.values()) {
+                c.count.reset();
+            }
+            PHASES.clear();
+            started = System.nanoTime();
+            phaseStarted = started;
+            phase = "setup";
+        }
+        return args;
+    }
+
+    /** Ends the current phase, and starts the one named name. */
+    static void phase(String name) {
+        if (enabled) {
+            endPhase();
+            phase = name;
+        }
+    }
+
+    /** Adds 1 to counter c. */
+    static void count(Counter c) {
+        if (enabled) {
+            c.count.increment();
+        }
+    }
+
+    /** Adds n to counter c. */
+    static void count(Counter c, long n) {
+        if (enabled) {
+            c.count.add(n);
+        }
+    }
+
+    /** Ends tracing, reporting on the traced command (if any). */
+    static void finish() {
+        if (!enabled) {
+            return;
+        }
+        enabled = false;
+        endPhase();
+        String report = report();
+        String env = System.getenv(ENV);
+        if (env == null || env.isEmpty() || env.equals("0")
+                || env.equals("1")) {
+            System.err.println(report);
+        } else {
+            Utils.appendTo(new File(env),
+                    (report + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Adds the time since the current phase started to it. */
+    private static void endPhase() {
+        long now = System.nanoTime();
+        PHASES.merge(phase, now - phaseStarted, Long::sum);
+        phaseStarted = now;
+    }
+
+    /** Returns the report on the traced command, as JSON. */
+    private static String report() {
+        StringBuilder json = new StringBuilder("{\"command\":");
+        quote(json, command);
+        json.append(",\"wallMs\":").append(ms(phaseStarted - started));
+        json.append(",\"phases\":{");
+        String sep = "";
+        for (Map.Entry<String, Long> p : PHASES.entrySet()) {
+            json.append(sep);
+            quote(json, p.getKey());
+            json.append(':').append(ms(p.getValue()));
+            sep = ",";
+        }
+        json.append("},\"counts\":{");
+        sep = "";
+        for (Counter c : Counter.values()) {
+            json.append(sep);
+            quote(json, c.key);
+            json.append(':').append(c.count.sum());
+            sep = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    /** Returns ns in ms, to 0.1 ms. */
+    private static String ms(long ns) {
+        return String.valueOf(Math.round(ns / 100_000.0) / 10.0);
+    }
+
+    /** Appends s to json, as a JSON string. */
+    private static void quote(StringBuilder json, String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
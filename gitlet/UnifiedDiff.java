@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/** Prints the differences between two versions of a set of files,
+ * as unified diffs (or as a --stat summary).
+ *
+ * Files whose blob ids match are skipped without being read. Each
+ * changed file is compared with the linear-space Diff engine, and its
+ * hunks are printed as they're grouped, so output starts flowing before
+ * the whole comparison is done.
+ * @author Cole Tahawi
+ */
+class UnifiedDiff {
+    /** Unchanged lines shown around each change. */
+    private static final int CONTEXT = 3;
+    /** Width of the +/- bar drawn by --stat. */
+    private static final int STAT_WIDTH = 40;
+
+    /** Where output goes. */
+    private final PrintStream out;
+    /** Whether to print a summary instead of the diffs themselves. */
+    private final boolean stat;
+    /** --stat lines, printed once every file has been compared. */
+    private final List<String> statNames = new ArrayList<>();
+    private final List<int[]> statCounts = new ArrayList<>();
+
+    /** A diff printer writing to out, in --stat form if stat. */
+    UnifiedDiff(PrintStream o, boolean s) {
+        out = o;
+        stat = s;
+    }
+
+    /** Compares two versions of a set of files, given as maps from path
+     * to an id of that version (equal ids mean equal contents) and
+     * functions reading a path's contents on either side.
+     * Renamed files are paired up with Renames, and paths are printed
+     * through displayName. */
+    void compare(Map<String, String> before, Map<String, String> after,
+                 Function<String, String> beforeText,
+                 Function<String, String> afterText,
+                 Function<String, String> displayName) {
+        Map<String, String> renames = Renames.find(before, after,
+                beforeText, afterText);
+        TreeSet<String> paths = new TreeSet<>(before.keySet());
+        paths.addAll(after.keySet());
+        paths.removeAll(renames.values());
+        for (String path : paths) {
+            String oldPath = renames.getOrDefault(path, path);
+            String oldId = before.get(oldPath);
+            String newId = after.get(path);
+            // same blob, no need to read anything
+            if (oldPath.equals(path) && oldId != null && oldId.equals(newId)) {
+                continue;
+            }
+            String oldText = oldId == null ? "" : beforeText.apply(oldPath);
+            String newText = newId == null ? "" : afterText.apply(path);
+            String oldName = oldId == null ? null : displayName.apply(oldPath);
+            String newName = newId == null ? null : displayName.apply(path);
+            if (oldText.equals(newText) && oldPath.equals(path)) {
+                continue;
+            }
+            compareFile(oldName, newName, oldText, newText);
+        }
+        if (stat) {
+            printStat();
+        }
+    }
+
+    /** Compares two versions of one file. A null name means that
+     * version DNE. */
+    void compareFile(String oldName, String newName,
+                     String oldText, String newText) {
+        Diff.LineTable table = new Diff.LineTable();
+        Diff.Lines a = new Diff.Lines(oldText);
+        Diff.Lines b = new Diff.Lines(newText);
+        table.add(a);
+        table.add(b);
+        List<Diff.Hunk> hunks = Diff.diff(a, b);
+        if (stat) {
+            int added = 0;
+            int removed = 0;
+            for (Diff.Hunk h : hunks) {
+                added += h.bEnd - h.bStart;
+                removed += h.aEnd - h.aStart;
+            }
+            String name = (oldName == null || newName == null
+                    || oldName.equals(newName)) ? (newName == null ? oldName
+                    : newName) : oldName + " => " + newName;
+            statNames.add(name);
+            statCounts.add(new int[] {added, removed});
+            return;
+        }
+        String shownOld = oldName == null ? newName : oldName;
+        String shownNew = newName == null ? oldName : newName;
+        out.println("diff --gitlet a/" + shownOld + " b/" + shownNew);
+        if (oldName == null) {
+            out.println("new file");
+        } else if (newName == null) {
+            out.println("deleted file");
+        } else if (!oldName.equals(newName)) {
+            out.println("rename from " + oldName);
+            out.println("rename to " + newName);
+        }
+        if (hunks.isEmpty()) {
+            return;
+        }
+        out.println("--- " + (oldName == null ? "/dev/null" : "a/" + oldName));
+        out.println("+++ " + (newName == null ? "/dev/null" : "b/" + newName));
+        // print hunks in groups, merging those whose contexts would touch
+        int first = 0;
+        while (first < hunks.size()) {
+            int last = first;
+            while (last + 1 < hunks.size() && hunks.get(last + 1).aStart
+                    - hunks.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            printGroup(a, b, hunks.subList(first, last + 1));
+            first = last + 1;
+        }
+    }
+
+    /** Prints one @@ section covering hunks, with context around them. */
+    private void printGroup(Diff.Lines a, Diff.Lines b, List<Diff.Hunk> hunks) {
+        Diff.Hunk h0 = hunks.get(0);
+        Diff.Hunk hn = hunks.get(hunks.size() - 1);
+        int aFrom = Math.max(0, h0.aStart - CONTEXT);
+        int bFrom = h0.bStart - (h0.aStart - aFrom);
+        int aTo = Math.min(a.size(), hn.aEnd + CONTEXT);
+        int bTo = hn.bEnd + (aTo - hn.aEnd);
+        out.println("@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo)
+                + " @@");
+        int ai = aFrom;
+        for (Diff.Hunk h : hunks) {
+            printLines(a, ai, h.aStart, ' ');
+            printLines(a, h.aStart, h.aEnd, '-');
+            printLines(b, h.bStart, h.bEnd, '+');
+            ai = h.aEnd;
+        }
+        printLines(a, ai, aTo, ' ');
+    }
+
+    /** Prints lines [from, to) of lines, each after prefix. */
+    private void printLines(Diff.Lines lines, int from, int to, char prefix) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = from; i < to; i += 1) {
+            buf.setLength(0);
+            buf.append(prefix);
+            lines.appendTo(buf, i, i + 1);
+            if (buf.charAt(buf.length() - 1) != '\n') {
+                buf.append("\n\\ No newline at end of file\n");
+            }
+            out.print(buf);
+        }
+    }
+
+    /** Returns a unified diff range for lines [from, to). */
+    private static String range(int from, int to) {
+        int len = to - from;
+        // an empty range is numbered by the line before it
+        return (len == 0 ? from : from + 1) + "," + len;
+    }
+
+    /** Prints the --stat summary of every file compared so far. */
+    private void printStat() {
+        int nameWidth = 0;
+        int most = 0;
+        int added = 0;
+        int removed = 0;
+        for (int i = 0; i < statNames.size(); i += 1) {
+            nameWidth = Math.max(nameWidth, statNames.get(i).length());
+            int[] counts = statCounts.get(i);
+            most = Math.max(most, counts[0] + counts[1]);
+            added += counts[0];
+            removed += counts[1];
+        }
+        for (int i = 0; i < statNames.size(); i += 1) {
+            int[] counts = statCounts.get(i);
+            int total = counts[0] + counts[1];
+            // scale bars down only if the biggest wouldn't fit
+            int plus = counts[0];
+            int minus = counts[1];
+            if (most > STAT_WIDTH) {
+                plus = (int) Math.ceil((double) plus * STAT_WIDTH / most);
+                minus = (int) Math.ceil((double) minus * STAT_WIDTH / most);
+            }
+            out.println(String.format(" %-" + nameWidth + "s | %d %s%s",
+                    statNames.get(i), total, "+".repeat(plus),
+                    "-".repeat(minus)).stripTrailing());
+        }
+        out.println(String.format(" %d file%s changed, %d insertion%s(+), "
+                        + "%d deletion%s(-)", statNames.size(),
+                statNames.size() == 1 ? "" : "s", added,
+                added == 1 ? "" : "s", removed, removed == 1 ? "" : "s"));
+    }
+}
@@ -1,16 +1,20 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -36,6 +40,7 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        Trace.count(Trace.Counter.SHA1);
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
@@ -98,7 +103,9 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            Trace.count(Trace.Counter.BYTES_READ, bytes.length);
+            return bytes;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -124,11 +131,10 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = (obj instanceof byte[]) ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                Trace.count(Trace.Counter.BYTES_WRITTEN, bytes.length);
             }
             str.close();
         } catch (IOException | ClassCastException excp) {
@@ -140,6 +146,9 @@ class Utils {
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        Trace.count(Trace.Counter.OBJECT_READS);
+        Trace.count(Trace.Counter.DESERIALIZATIONS);
+        Trace.count(Trace.Counter.BYTES_READ, file.length());
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
@@ -152,9 +161,49 @@ class Utils {
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Write OBJ to FILE. FILE is replaced atomically (see
+     *  writeAtomically), so it's never seen, or left, half-written. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        Trace.count(Trace.Counter.OBJECT_WRITES);
+        writeAtomically(file, serialize(obj));
+    }
+
+    /** Write BYTES to a new temporary file next to FILE, then rename it
+     *  over FILE, so readers see either all of FILE's old contents or all
+     *  of its new ones. Throws IllegalArgumentException in case of
+     *  problems. */
+    static void writeAtomically(File file, byte[] bytes) {
+        try {
+            Path temp = Files.createTempFile(
+                file.getAbsoluteFile().getParentFile().toPath(),
+                "." + file.getName(), ".tmp");
+            try {
+                Files.write(temp, bytes);
+                Trace.count(Trace.Counter.BYTES_WRITTEN, bytes.length);
+                Files.move(temp, file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Append the concatenation of CONTENTS to FILE, creating it if
+     *  need be. Unlike writeAtomically, a reader may see part of what's
+     *  appended, so this is for logs whose readers only trust complete
+     *  records. Throws IllegalArgumentException in case of problems. */
+    static void appendTo(File file, byte[]... contents) {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            for (byte[] b : contents) {
+                out.write(b);
+                Trace.count(Trace.Counter.BYTES_WRITTEN, b.length);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /* DIRECTORIES */
@@ -172,6 +221,7 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
+        Trace.count(Trace.Counter.DIR_LISTINGS);
         String[] files = dir.list(PLAIN_FILES);
         if (files == null) {
             return null;
@@ -188,6 +238,18 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns the names of the gitlet objects (files named by a sha) in
+     *  the directory DIR, in lexicographic order, leaving out temporary
+     *  files. Returns an empty array if DIR does not denote a directory. */
+    static String[] objectNames(File dir) {
+        List<String> names = plainFilenamesIn(dir);
+        if (names == null) {
+            return new String[0];
+        }
+        return names.stream().filter(n -> n.length() == UID_LENGTH)
+                .toArray(String[]::new);
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -218,6 +280,24 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from BYTES (as returned by
+     *  serialize), casting it to EXPECTEDCLASS.
+     *  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        Trace.count(Trace.Counter.DESERIALIZATIONS);
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */